@@ -0,0 +1,91 @@
+package io.github.idonans.core.db;
+
+import android.os.Debug;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.github.idonans.core.CoreLog;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 统计高频操作每次调用在当前线程上的对象分配次数. 不使用内存缓存, 每次读写都访问数据库.
+ * <p>
+ * touch 与 remove 只使用池中的预编译语句; get 因为需要读取 BLOB 使用 rawQuery, 作为对照记录.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SimpleDBAllocationTest {
+
+    private static final int KEY_COUNT = 100;
+    private static final int WARM_UP = 200;
+    private static final int ITERATIONS = 1000;
+
+    /**
+     * touch 每次调用允许的最大分配次数. key 的加密结果已被缓存, 剩余的分配来自语句池的队列节点与参数装箱等.
+     */
+    private static final int MAX_TOUCH_ALLOCATIONS = 64;
+
+    private SimpleDB mDB;
+
+    @Before
+    public void setUp() {
+        mDB = new SimpleDB("test_allocation");
+        mDB.clear();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            mDB.set(key(i), "value_" + i);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDB.clear();
+    }
+
+    @Test
+    public void allocationsPerOperation() {
+        final double touch = measure(i -> mDB.touch(key(i)));
+        final double set = measure(i -> mDB.set(key(i), "value_" + i));
+        final double get = measure(i -> mDB.get(key(i)));
+        // 删除不存在的 key, 保持数据不变
+        final double remove = measure(i -> mDB.remove("missing_" + i));
+
+        CoreLog.i("allocations per operation: touch %s, set %s, get(rawQuery) %s, remove %s", touch, set, get, remove);
+
+        assertTrue("touch allocations " + touch, touch <= MAX_TOUCH_ALLOCATIONS);
+        // set 需要加密 value, 不应少于只更新访问时间的 touch
+        assertTrue("touch " + touch + " should allocate less than set " + set, touch < set);
+    }
+
+    private static String key(int i) {
+        return "key_" + (i % KEY_COUNT);
+    }
+
+    /**
+     * 预热之后执行 ITERATIONS 次, 返回平均每次的分配次数
+     */
+    private static double measure(Operation operation) {
+        for (int i = 0; i < WARM_UP; i++) {
+            operation.run(i);
+        }
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < ITERATIONS; i++) {
+                operation.run(i);
+            }
+            return (double) Debug.getThreadAllocCount() / ITERATIONS;
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private interface Operation {
+        void run(int i);
+    }
+
+}
@@ -0,0 +1,120 @@
+package io.github.idonans.core.db;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.github.idonans.core.CoreLog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 一个写线程持续写入时, 不同数量的读线程的读取吞吐量. 不使用内存缓存, 每次读取都查询数据库.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SimpleDBConcurrencyTest {
+
+    private static final int KEY_COUNT = 500;
+    private static final long DURATION_MS = 2000L;
+    private static final int READERS = 4;
+
+    @Test
+    public void readThroughputScalesWithWal() throws Exception {
+        final SimpleDB db = createDB("concurrency_wal", true);
+        try {
+            final long single = measureReads(db, 1);
+            final long multi = measureReads(db, READERS);
+            CoreLog.i("wal on: 1 reader %s reads, %s readers %s reads", single, READERS, multi);
+            assertTrue("read throughput should scale with WAL, 1 reader " + single + ", "
+                    + READERS + " readers " + multi, multi > single);
+        } finally {
+            db.clear();
+        }
+    }
+
+    @Test
+    public void readThroughputWithoutWal() throws Exception {
+        final SimpleDB db = createDB("concurrency_no_wal", false);
+        try {
+            final long single = measureReads(db, 1);
+            final long multi = measureReads(db, READERS);
+            // 不开启 WAL 时读写共用一个连接, 只记录结果作为对照
+            CoreLog.i("wal off: 1 reader %s reads, %s readers %s reads", single, READERS, multi);
+            assertTrue(single > 0 && multi > 0);
+        } finally {
+            db.clear();
+        }
+    }
+
+    private static SimpleDB createDB(String name, boolean wal) {
+        final SimpleDB db = new SimpleDB("test_" + name, new SimpleDB.Config()
+                .setWriteAheadLoggingEnabled(wal));
+        db.clear();
+        final Map<String, String> data = new HashMap<>();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            data.put("key_" + i, "value_" + i);
+        }
+        db.setAll(data);
+        return db;
+    }
+
+    /**
+     * 在写线程持续写入的同时, 运行 readers 个读线程 DURATION_MS 毫秒, 返回读取的总次数
+     */
+    private static long measureReads(final SimpleDB db, int readers) throws InterruptedException {
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicLong reads = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+
+        threads.add(new Thread(() -> {
+            final Random random = new Random();
+            awaitQuietly(start);
+            while (!stop.get()) {
+                db.set("key_" + random.nextInt(KEY_COUNT), "value_" + random.nextInt());
+            }
+        }));
+        for (int i = 0; i < readers; i++) {
+            threads.add(new Thread(() -> {
+                final Random random = new Random();
+                awaitQuietly(start);
+                long count = 0;
+                while (!stop.get()) {
+                    db.get("key_" + random.nextInt(KEY_COUNT));
+                    count++;
+                }
+                reads.addAndGet(count);
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        Thread.sleep(DURATION_MS);
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return reads.get();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package io.github.idonans.core.db;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 开启 WAL 时读线程使用其它连接, 事务提交之前读取到的是旧值. 事务提交之后不应再读取到旧值(缓存或者快照中残留的旧值).
+ */
+@RunWith(AndroidJUnit4.class)
+public class SimpleDBTransactionVisibilityTest {
+
+    private static final int KEY_COUNT = 200;
+    private static final int ROUNDS = 50;
+    private static final int READERS = 2;
+
+    @Test
+    public void cacheSeesCommittedSetAll() throws Exception {
+        verify("visibility_cache", new SimpleDB.Config()
+                .setWriteAheadLoggingEnabled(true)
+                .setMaxCacheSize(KEY_COUNT * 2));
+    }
+
+    @Test
+    public void snapshotSeesCommittedSetAll() throws Exception {
+        verify("visibility_snapshot", new SimpleDB.Config()
+                .setWriteAheadLoggingEnabled(true)
+                .setMaxCacheSize(0)
+                .setSnapshotEnabled(true));
+    }
+
+    /**
+     * 读线程持续读取的同时多次 setAll, 每次 setAll 返回之后全部 key 都应读取到本次写入的值
+     */
+    private static void verify(String name, SimpleDB.Config config) throws Exception {
+        final SimpleDB db = new SimpleDB("test_" + name, config);
+        db.clear();
+        final AtomicBoolean stop = new AtomicBoolean();
+        final List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            readers.add(new Thread(() -> {
+                final Random random = new Random();
+                while (!stop.get()) {
+                    db.get(key(random.nextInt(KEY_COUNT)));
+                }
+            }));
+        }
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                final Map<String, String> data = new HashMap<>();
+                for (int i = 0; i < KEY_COUNT; i++) {
+                    data.put(key(i), "value_" + round);
+                }
+                db.setAll(data);
+                for (int i = 0; i < KEY_COUNT; i++) {
+                    assertEquals("round " + round + " " + key(i), "value_" + round, db.get(key(i)));
+                }
+            }
+        } finally {
+            stop.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            db.clear();
+        }
+    }
+
+    private static String key(int i) {
+        return "key_" + i;
+    }
+
+}
@@ -0,0 +1,70 @@
+package io.github.idonans.core.db;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.github.idonans.core.CoreLog;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 对比 MappedDB 与 SimpleDB 单条读写的平均耗时. SimpleDB 不使用内存缓存, 每次读写都访问数据库.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StorageEngineBenchmarkTest {
+
+    private static final int KEY_COUNT = 200;
+    private static final int WARM_UP = 200;
+    private static final int ITERATIONS = 2000;
+
+    @Test
+    public void mappedFasterThanSimpleDB() {
+        final SimpleDB simpleDB = new SimpleDB("test_benchmark_simple");
+        final MappedDB mappedDB = new MappedDB("test_benchmark_mapped",
+                new SimpleDB.Config().setMaxRows(KEY_COUNT));
+        simpleDB.clear();
+        mappedDB.clear();
+        try {
+            final double simpleSet = measure(i -> simpleDB.set(key(i), "value_" + i));
+            final double mappedSet = measure(i -> mappedDB.set(key(i), "value_" + i));
+            final double simpleGet = measure(i -> simpleDB.get(key(i)));
+            final double mappedGet = measure(i -> mappedDB.get(key(i)));
+            // 每次写入新的 key, 数据条数保持在上限, 每次写入都会淘汰最旧的数据
+            final double mappedEvict = measure(i -> mappedDB.set("evict_" + i, "value_" + i));
+
+            CoreLog.i("us per op: SimpleDB set %s get %s, MappedDB set %s get %s evict %s",
+                    simpleSet, simpleGet, mappedSet, mappedGet, mappedEvict);
+
+            assertTrue("MappedDB get " + mappedGet + "us, SimpleDB get " + simpleGet + "us", mappedGet < simpleGet);
+            assertTrue("MappedDB set " + mappedSet + "us, SimpleDB set " + simpleSet + "us", mappedSet < simpleSet);
+        } finally {
+            simpleDB.clear();
+            mappedDB.clear();
+        }
+    }
+
+    private static String key(int i) {
+        return "key_" + (i % KEY_COUNT);
+    }
+
+    /**
+     * 预热之后执行 ITERATIONS 次, 返回平均每次的耗时(微秒)
+     */
+    private static double measure(Operation operation) {
+        for (int i = 0; i < WARM_UP; i++) {
+            operation.run(i);
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            operation.run(WARM_UP + i);
+        }
+        return (System.nanoTime() - start) / 1000d / ITERATIONS;
+    }
+
+    private interface Operation {
+        void run(int i);
+    }
+
+}
@@ -0,0 +1,159 @@
+package io.github.idonans.core.manager;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.github.idonans.core.CoreLog;
+import io.github.idonans.core.db.SimpleDB;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 多个线程同时调用 getOrSetLock: 同一个 key 只有一个写入生效, 不同的 key 使用不同的分段锁互不阻塞.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StorageManagerContentionTest {
+
+    private static final String NAMESPACE = "test_contention";
+    private static final String STRIPED_NAMESPACE = "test_contention_striped";
+    private static final int THREADS = 4;
+    private static final int KEYS_PER_THREAD = 200;
+
+    @Test
+    public void sameKeyHasSingleWinner() throws Exception {
+        final StorageManager storageManager = StorageManager.getInstance();
+        final String key = "same_" + System.nanoTime();
+        final Set<String> results = Collections.synchronizedSet(new HashSet<>());
+        try {
+            run(THREADS, index -> results.add(storageManager.getOrSetLock(NAMESPACE, key, "value_" + index)));
+            assertEquals("all threads should see the same value " + results, 1, results.size());
+            assertTrue(results.contains(storageManager.get(NAMESPACE, key)));
+        } finally {
+            storageManager.removeAll(NAMESPACE, Collections.singleton(key));
+        }
+    }
+
+    /**
+     * 不同的 key 分布在不同的锁上时, 锁内的读取与加密可以并行执行, 吞吐量应高于全部 key 落在同一把锁上的情况
+     */
+    @Test
+    public void stripedLocksFasterThanSingleLock() throws Exception {
+        final StorageManager storageManager = StorageManager.getInstance();
+        // 开启 WAL 且不使用缓存, 锁内的读取可以在多个连接上并发执行
+        storageManager.setConfig(STRIPED_NAMESPACE, new SimpleDB.Config()
+                .setWriteAheadLoggingEnabled(true)
+                .setMaxCacheSize(0));
+        final String prefix = "striped_" + System.nanoTime() + "_";
+        final List<String> keys = new ArrayList<>();
+        try {
+            // 预热, 打开数据库并初始化加密算法
+            measure(selectKeys(prefix + "warm_", KEYS_PER_THREAD, null), keys);
+            final Object lock = storageManager.getGetOrSetLock(STRIPED_NAMESPACE, prefix + "single_");
+            final long singleLock = measure(selectKeys(prefix + "single_", THREADS * KEYS_PER_THREAD, lock), keys);
+            final long striped = measure(selectKeys(prefix + "striped_", THREADS * KEYS_PER_THREAD, null), keys);
+            final long sameKey = measureSameKey(THREADS, prefix + "same_", keys);
+            CoreLog.i("getOrSetLock ops per second with %s threads: striped %s, single lock %s, same key %s",
+                    THREADS, striped, singleLock, sameKey);
+
+            for (String key : keys) {
+                assertTrue("missing value for " + key, storageManager.get(STRIPED_NAMESPACE, key) != null);
+            }
+            assertTrue("striped " + striped + " ops/s, single lock " + singleLock + " ops/s", striped > singleLock);
+        } finally {
+            storageManager.removeAll(STRIPED_NAMESPACE, keys);
+        }
+    }
+
+    /**
+     * 生成 count 个以 prefix 开头的 key. lock 不为 null 时只选取落在该锁上的 key
+     */
+    private static List<String> selectKeys(String prefix, int count, Object lock) {
+        final StorageManager storageManager = StorageManager.getInstance();
+        final List<String> keys = new ArrayList<>(count);
+        for (int i = 0; keys.size() < count; i++) {
+            final String key = prefix + i;
+            if (lock == null || storageManager.getGetOrSetLock(STRIPED_NAMESPACE, key) == lock) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * THREADS 个线程分别写入 keys 中互不相同的一部分, 返回每秒完成的调用次数
+     */
+    private static long measure(final List<String> keys, final List<String> allKeys) throws InterruptedException {
+        final StorageManager storageManager = StorageManager.getInstance();
+        allKeys.addAll(keys);
+        final long start = System.nanoTime();
+        run(THREADS, index -> {
+            for (int i = index; i < keys.size(); i += THREADS) {
+                storageManager.getOrSetLock(STRIPED_NAMESPACE, keys.get(i), "value_" + i);
+            }
+        });
+        return opsPerSecond(keys.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * threads 个线程同时写入相同的 KEYS_PER_THREAD 个 key, 返回每秒完成的调用次数
+     */
+    private static long measureSameKey(int threads, final String prefix, final List<String> keys) throws InterruptedException {
+        final StorageManager storageManager = StorageManager.getInstance();
+        for (int i = 0; i < KEYS_PER_THREAD; i++) {
+            keys.add(prefix + i);
+        }
+        final long start = System.nanoTime();
+        run(threads, index -> {
+            for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                storageManager.getOrSetLock(STRIPED_NAMESPACE, prefix + i, "value_" + index);
+            }
+        });
+        return opsPerSecond((long) threads * KEYS_PER_THREAD, System.nanoTime() - start);
+    }
+
+    private static long opsPerSecond(long ops, long costNanos) {
+        return ops * 1000_000_000L / Math.max(1L, costNanos);
+    }
+
+    /**
+     * 启动 threads 个线程同时执行 task 并等待全部结束
+     */
+    private static void run(int threads, final Task task) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> list = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            list.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                task.run(index);
+            }));
+        }
+        for (Thread thread : list) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : list) {
+            thread.join();
+        }
+    }
+
+    private interface Task {
+        void run(int index);
+    }
+
+}
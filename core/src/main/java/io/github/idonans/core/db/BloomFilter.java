@@ -0,0 +1,83 @@
+package io.github.idonans.core.db;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 用于快速判断 key 一定不存在的布隆过滤器. 可以并发读写, 不支持删除.
+ * <p>
+ * 按 1% 的误判率计算大小, 每个 key 约占用 10 bit, 使用 7 个 hash.
+ */
+final class BloomFilter {
+
+    private static final int BITS_PER_KEY = 10;
+    private static final int HASH_COUNT = 7;
+
+    /**
+     * 期望容纳的 key 的数量, 超出后误判率上升
+     */
+    private final int mCapacity;
+    private final int mBitSize;
+    private final AtomicLongArray mBits;
+
+    BloomFilter(int capacity) {
+        mCapacity = Math.max(1, capacity);
+        final long bitSize = (long) mCapacity * BITS_PER_KEY;
+        mBitSize = (int) Math.min(Integer.MAX_VALUE - 63, bitSize);
+        mBits = new AtomicLongArray((mBitSize + 63) / 64);
+    }
+
+    int getCapacity() {
+        return mCapacity;
+    }
+
+    void add(@NonNull String key) {
+        final int hash1 = key.hashCode();
+        final int hash2 = secondHash(key);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            final int bit = index(hash1 + i * hash2);
+            final int word = bit >>> 6;
+            final long mask = 1L << bit;
+            long current;
+            do {
+                current = mBits.get(word);
+                if ((current & mask) != 0) {
+                    break;
+                }
+            } while (!mBits.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    /**
+     * 返回 false 时 key 一定不存在, 返回 true 时 key 可能存在
+     */
+    boolean mightContain(@NonNull String key) {
+        final int hash1 = key.hashCode();
+        final int hash2 = secondHash(key);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            final int bit = index(hash1 + i * hash2);
+            if ((mBits.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int index(int hash) {
+        return (hash & Integer.MAX_VALUE) % mBitSize;
+    }
+
+    /**
+     * 与 String#hashCode 相互独立的 FNV-1a hash, 结果不为 0, 避免多个 hash 落在同一位置
+     */
+    private static int secondHash(@NonNull String key) {
+        int hash = 0x811C9DC5;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x01000193;
+        }
+        return hash | 1;
+    }
+
+}
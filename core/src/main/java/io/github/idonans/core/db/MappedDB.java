@@ -0,0 +1,864 @@
+package io.github.idonans.core.db;
+
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import io.github.idonans.core.Charsets;
+import io.github.idonans.core.Constants;
+import io.github.idonans.core.CoreLog;
+import io.github.idonans.core.manager.ProcessManager;
+import io.github.idonans.core.security.AES;
+import io.github.idonans.core.thread.Threads;
+import io.github.idonans.core.util.ContextUtil;
+import io.github.idonans.core.util.IOUtil;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * 基于内存映射文件的 KV 数据库. 不同的进程使用不同的文件.
+ * <p>
+ * 所有写操作以加密记录的形式追加到文件末尾, 内存中保存全部有效数据, 读操作不访问文件.
+ * 写入的数据在进程崩溃后不会丢失(由系统负责写回), 但不保证系统断电时不丢失.
+ * <p>
+ * 文件格式:
+ * <pre>
+ * [magic 4 bytes][version 4 bytes]
+ * [payload length 4 bytes][crc32 of payload 4 bytes][payload] ...
+ * payload = AES([op 1 byte][update 8 bytes][expire 8 bytes][key length 4 bytes][key][value])
+ * </pre>
+ * 打开时从头回放全部记录, 遇到长度为 0, 不完整或者校验失败的记录时停止, 丢弃该位置之后的内容, 之后的写入从该位置开始.
+ * 每条记录之后都写入长度为 0 的结束标记.
+ * 失效记录占用的空间超过有效记录时, 在后台重写文件.
+ */
+public class MappedDB implements StorageEngine {
+
+    private static final int MAGIC = 0x4D4B5631;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int RECORD_HEADER_LENGTH = 8;
+    private static final int PAYLOAD_HEADER_LENGTH = 1 + 8 + 8 + 4;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    /**
+     * 失效记录占用的空间小于该值时不重写文件
+     */
+    private static final long MIN_COMPACT_BYTES = 64 * 1024;
+    /**
+     * 单次写入时最多删除的旧数据条数, 与 SimpleDB 一致
+     */
+    private static final int EVICT_BATCH_SIZE = 8;
+
+    private final File mFile;
+    private final int mMaxRows;
+    private final long mMaxBytes;
+
+    private final Object mLock = new Object();
+    private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+    private volatile boolean mLoaded;
+
+    // 以下字段只在持有 mLock 时访问
+    /**
+     * 按写入顺序(即更新时间从旧到新)排列的全部 key, 用于 O(1) 取得最旧的数据
+     */
+    private final LinkedHashSet<String> mOrder = new LinkedHashSet<>();
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private MappedByteBuffer mBuffer;
+    private int mWritePosition;
+    /**
+     * 有效记录占用的字节数
+     */
+    private long mLiveBytes;
+    private boolean mCompactScheduled;
+    private boolean mTrimBytesScheduled;
+
+    @Nullable
+    private volatile OnEvictListener mOnEvictListener;
+
+    /**
+     * 实现中会在文件名前附加当前进程标识
+     */
+    public MappedDB(@NonNull String databaseName) {
+        this(databaseName, null);
+    }
+
+    /**
+     * 实现中会在文件名前附加当前进程标识. 只使用 config 中的 maxRows 与 maxBytes, 数据本身全部在内存中, 不需要额外的缓存.
+     *
+     * @param config 为 null 时使用默认配置
+     */
+    public MappedDB(@NonNull String databaseName, @Nullable SimpleDB.Config config) {
+        CoreLog.v("init");
+        if (config == null) {
+            config = new SimpleDB.Config();
+        }
+        mMaxRows = config.getMaxRows();
+        mMaxBytes = config.getMaxBytes();
+        String fileName = Constants.GLOBAL_PREFIX + ProcessManager.getInstance().getProcessTag() + "_" + databaseName + ".mkv";
+        mFile = ContextUtil.getContext().getDatabasePath(fileName);
+        Threads.postBackground(this::prewarm);
+    }
+
+    /**
+     * 打开文件并回放全部记录
+     */
+    @Override
+    public void prewarm() {
+        try {
+            ensureLoaded();
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    @Nullable
+    public String get(@Nullable String key) {
+        if (TextUtils.isEmpty(key)) {
+            return null;
+        }
+
+        try {
+            ensureLoaded();
+            final Entry entry = mEntries.get(key);
+            if (entry == null || entry.isExpired(System.currentTimeMillis())) {
+                return null;
+            }
+            return entry.value;
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    @Override
+    @Nullable
+    public Map<String, String> getMany(@Nullable Collection<String> keys) {
+        final Map<String, String> data = new HashMap<>();
+        if (keys == null) {
+            return data;
+        }
+        for (String key : keys) {
+            final String value = get(key);
+            if (value != null) {
+                data.put(key, value);
+            }
+        }
+        return data;
+    }
+
+    @Override
+    @Nullable
+    public Map<String, String> getAll() {
+        try {
+            ensureLoaded();
+            final long now = System.currentTimeMillis();
+            Map<String, String> data = new HashMap<>();
+            for (Map.Entry<String, Entry> item : mEntries.entrySet()) {
+                if (!item.getValue().isExpired(now)) {
+                    data.put(item.getKey(), item.getValue().value);
+                }
+            }
+            return data;
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    @Override
+    @Nullable
+    public Map<String, String> getByPrefix(@Nullable String prefix) {
+        if (prefix == null) {
+            return null;
+        }
+
+        try {
+            ensureLoaded();
+            final long now = System.currentTimeMillis();
+            Map<String, String> data = new HashMap<>();
+            for (Map.Entry<String, Entry> item : mEntries.entrySet()) {
+                final String key = item.getKey();
+                if (key.startsWith(prefix)
+                        && prefix.equals(SimpleDB.getBucket(key))
+                        && !item.getValue().isExpired(now)) {
+                    data.put(key, item.getValue().value);
+                }
+            }
+            return data;
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    @Override
+    public void set(@Nullable String key, @Nullable String value) {
+        set(key, value, 0L);
+    }
+
+    @Override
+    public void set(@Nullable String key, @Nullable String value, long ttlMillis) {
+        if (TextUtils.isEmpty(key)) {
+            return;
+        }
+        setValue(key, value, ttlMillis);
+    }
+
+    /**
+     * value 为空时删除 key, 返回是否写入成功
+     */
+    private boolean setValue(@NonNull String key, @Nullable String value, long ttlMillis) {
+        if (TextUtils.isEmpty(value)) {
+            return removeKey(key);
+        }
+
+        try {
+            synchronized (mLock) {
+                ensureLoaded();
+                final long now = System.currentTimeMillis();
+                final long expire = ttlMillis > 0 ? now + ttlMillis : 0L;
+                final int length = append(OP_PUT, key, value, now, expire);
+                final Entry previous = mEntries.put(key, new Entry(value, now, expire, length));
+                touchOrderLocked(key);
+                mLiveBytes += length;
+                if (previous != null) {
+                    mLiveBytes -= previous.length;
+                } else {
+                    evictIfNeeded();
+                }
+                onWritten();
+                return true;
+            }
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    @Override
+    public boolean putIfAbsent(@Nullable String key, @Nullable String value) {
+        if (TextUtils.isEmpty(key) || TextUtils.isEmpty(value)) {
+            return false;
+        }
+
+        synchronized (mLock) {
+            return get(key) == null && setValue(key, value, 0L);
+        }
+    }
+
+    @Override
+    public boolean compareAndSet(@Nullable String key, @Nullable String expect, @Nullable String update) {
+        if (TextUtils.isEmpty(key)) {
+            return false;
+        }
+
+        synchronized (mLock) {
+            final String current = get(key);
+            final boolean expected = TextUtils.isEmpty(expect) ? current == null : expect.equals(current);
+            return expected && setValue(key, update, 0L);
+        }
+    }
+
+    @Override
+    public void setAll(@Nullable Map<String, String> data) {
+        if (data == null || data.isEmpty()) {
+            return;
+        }
+
+        runInTransaction(() -> {
+            for (Map.Entry<String, String> entry : data.entrySet()) {
+                set(entry.getKey(), entry.getValue());
+            }
+        });
+    }
+
+    @Override
+    public void remove(@Nullable String key) {
+        if (TextUtils.isEmpty(key)) {
+            return;
+        }
+        removeKey(key);
+    }
+
+    /**
+     * 返回是否执行成功, key 不存在时同样视为成功
+     */
+    private boolean removeKey(@NonNull String key) {
+        try {
+            synchronized (mLock) {
+                ensureLoaded();
+                removeLocked(key);
+                onWritten();
+                return true;
+            }
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    @Override
+    public void removeAll(@Nullable Collection<String> keys) {
+        if (keys == null || keys.isEmpty()) {
+            return;
+        }
+
+        runInTransaction(() -> {
+            for (String key : keys) {
+                remove(key);
+            }
+        });
+    }
+
+    /**
+     * 在持有写锁的情况下执行 runnable, 期间其它线程的写操作需要等待. 已经写入的记录不会回滚.
+     *
+     * @return runnable 正常结束返回 true, 否则返回 false.
+     */
+    @Override
+    public boolean runInTransaction(@NonNull Runnable runnable) {
+        try {
+            synchronized (mLock) {
+                runnable.run();
+            }
+            return true;
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    @Override
+    public int trim(int maxRows) {
+        if (maxRows < 1) {
+            return -1;
+        }
+
+        try {
+            synchronized (mLock) {
+                ensureLoaded();
+                final int excess = mEntries.size() - maxRows;
+                if (excess <= 0) {
+                    return -1;
+                }
+                for (String key : getOldestKeysLocked(excess)) {
+                    removeLocked(key);
+                }
+                onWritten();
+                return excess;
+            }
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    /**
+     * 按更新时间从旧到新删除数据, 直到有效记录的总大小不超过 maxBytes.
+     * 返回删除的数据的条数, 如果不满足删除条件返回 -1.
+     */
+    @Override
+    public int trimBytes(long maxBytes) {
+        if (maxBytes < 1) {
+            return -1;
+        }
+
+        try {
+            synchronized (mLock) {
+                ensureLoaded();
+                if (mLiveBytes <= maxBytes) {
+                    return -1;
+                }
+                int count = 0;
+                while (mLiveBytes > maxBytes && !mOrder.isEmpty()) {
+                    removeLocked(mOrder.iterator().next());
+                    count++;
+                }
+                onWritten();
+                return count;
+            }
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    @Override
+    public int sweepExpired() {
+        try {
+            synchronized (mLock) {
+                ensureLoaded();
+                final long now = System.currentTimeMillis();
+                final List<String> expiredKeys = new ArrayList<>();
+                for (Map.Entry<String, Entry> item : mEntries.entrySet()) {
+                    if (item.getValue().isExpired(now)) {
+                        expiredKeys.add(item.getKey());
+                    }
+                }
+                for (String key : expiredKeys) {
+                    removeLocked(key);
+                }
+                onWritten();
+                return expiredKeys.size();
+            }
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    @Override
+    public int clear() {
+        try {
+            synchronized (mLock) {
+                ensureLoaded();
+                final int count = mEntries.size();
+                // 截断文件, 避免旧记录在之后的回放中被重新读到
+                mChannel.truncate(HEADER_LENGTH);
+                mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_CAPACITY);
+                writeHeader(mBuffer);
+                mWritePosition = HEADER_LENGTH;
+                mEntries.clear();
+                mOrder.clear();
+                mLiveBytes = 0L;
+                return count;
+            }
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    @Override
+    public int count() {
+        try {
+            ensureLoaded();
+            return mEntries.size();
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    /**
+     * only for debug
+     */
+    @Override
+    public void printAllRows() {
+        try {
+            ensureLoaded();
+            String tag = mFile.getPath();
+            CoreLog.d("--" + tag + "--");
+            for (Map.Entry<String, Entry> item : mEntries.entrySet()) {
+                CoreLog.d(mFile.getName() + " " + item.getValue().update + ", " + item.getKey() + ", " + item.getValue().value);
+            }
+            CoreLog.d("--" + tag + "-- end");
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void setOnEvictListener(@Nullable OnEvictListener listener) {
+        mOnEvictListener = listener;
+    }
+
+    /**
+     * 第一次访问时打开文件并回放全部记录
+     */
+    private void ensureLoaded() throws Exception {
+        if (mLoaded) {
+            return;
+        }
+        synchronized (mLock) {
+            if (mLoaded) {
+                return;
+            }
+            load();
+            mLoaded = true;
+        }
+    }
+
+    private void load() throws Exception {
+        final File dir = mFile.getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        final long fileLength = openFile();
+        if (fileLength < HEADER_LENGTH
+                || mBuffer.getInt(0) != MAGIC
+                || mBuffer.getInt(4) != VERSION) {
+            if (fileLength > 0) {
+                CoreLog.e("unknown file format, discard %s", mFile.getPath());
+            }
+            mChannel.truncate(0);
+            mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_CAPACITY);
+            writeHeader(mBuffer);
+            mWritePosition = HEADER_LENGTH;
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final int capacity = mBuffer.capacity();
+        int position = HEADER_LENGTH;
+        while (position + RECORD_HEADER_LENGTH <= capacity) {
+            final int length = mBuffer.getInt(position);
+            final long crc = mBuffer.getInt(position + 4) & 0xFFFFFFFFL;
+            if (length <= 0 || length > capacity - position - RECORD_HEADER_LENGTH) {
+                break;
+            }
+            final byte[] payload = new byte[length];
+            mBuffer.position(position + RECORD_HEADER_LENGTH);
+            mBuffer.get(payload);
+            if (crc32(payload) != crc) {
+                CoreLog.e("crc mismatch at %s, drop the rest of %s", position, mFile.getPath());
+                break;
+            }
+
+            final ByteBuffer plain;
+            try {
+                plain = ByteBuffer.wrap(AES.getDefault().decodeBytes(payload));
+            } catch (Throwable e) {
+                e.printStackTrace();
+                CoreLog.e("fail to decode record at %s, drop the rest of %s", position, mFile.getPath());
+                break;
+            }
+            final byte op = plain.get();
+            final long update = plain.getLong();
+            final long expire = plain.getLong();
+            final byte[] keyBytes = new byte[plain.getInt()];
+            plain.get(keyBytes);
+            final String key = new String(keyBytes, Charsets.UTF8);
+            final int recordLength = RECORD_HEADER_LENGTH + length;
+
+            Entry previous = null;
+            if (op == OP_PUT) {
+                if (!isExpired(expire, now)) {
+                    final byte[] valueBytes = new byte[plain.remaining()];
+                    plain.get(valueBytes);
+                    final String value = new String(valueBytes, Charsets.UTF8);
+                    previous = mEntries.put(key, new Entry(value, update, expire, recordLength));
+                    touchOrderLocked(key);
+                    mLiveBytes += recordLength;
+                } else {
+                    previous = mEntries.remove(key);
+                    mOrder.remove(key);
+                }
+            } else if (op == OP_REMOVE) {
+                previous = mEntries.remove(key);
+                mOrder.remove(key);
+            }
+            if (previous != null) {
+                mLiveBytes -= previous.length;
+            }
+            position += recordLength;
+        }
+        if (position < fileLength) {
+            // 截断停止位置之后的内容(可能是损坏记录之后的旧记录), 重新映射后该区域全部为 0,
+            // 避免之后写入的记录恰好与损坏的记录等长时, 回放越过新记录读到旧记录
+            mChannel.truncate(position);
+            mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+        mWritePosition = position;
+        CoreLog.v("loaded %s rows from %s", mEntries.size(), mFile.getPath());
+    }
+
+    /**
+     * 打开并映射文件, 返回映射之前的文件大小(映射会将文件扩展到至少 INITIAL_CAPACITY)
+     */
+    private long openFile() throws Exception {
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mChannel = mRandomAccessFile.getChannel();
+        final long fileLength = mChannel.size();
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(fileLength, INITIAL_CAPACITY));
+        return fileLength;
+    }
+
+    private void closeFile() {
+        mBuffer = null;
+        IOUtil.closeQuietly(mChannel);
+        IOUtil.closeQuietly(mRandomAccessFile);
+        mChannel = null;
+        mRandomAccessFile = null;
+    }
+
+    private static void writeHeader(@NonNull ByteBuffer buffer) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        // 标记记录结束, 回放时在此停止
+        buffer.putInt(HEADER_LENGTH, 0);
+    }
+
+    /**
+     * 追加一条记录, 返回记录占用的字节数
+     */
+    private int append(byte op, @NonNull String key, @Nullable String value, long update, long expire) throws Exception {
+        final byte[] payload = encodeRecord(op, key, value, update, expire);
+        final int recordLength = RECORD_HEADER_LENGTH + payload.length;
+        // 包括记录之后的结束标记
+        ensureCapacity(recordLength + 4);
+
+        // 先写入记录之后的结束标记, 长度最后写入, 写入中断时回放会在此停止
+        mBuffer.position(mWritePosition + RECORD_HEADER_LENGTH);
+        mBuffer.put(payload);
+        mBuffer.putInt(mWritePosition + 4, (int) crc32(payload));
+        mBuffer.putInt(mWritePosition + recordLength, 0);
+        mBuffer.putInt(mWritePosition, payload.length);
+        mWritePosition += recordLength;
+        return recordLength;
+    }
+
+    @NonNull
+    private static byte[] encodeRecord(byte op, @NonNull String key, @Nullable String value, long update, long expire) throws Exception {
+        final byte[] keyBytes = key.getBytes(Charsets.UTF8);
+        final byte[] valueBytes = value == null ? new byte[0] : value.getBytes(Charsets.UTF8);
+        final ByteBuffer plain = ByteBuffer.allocate(PAYLOAD_HEADER_LENGTH + keyBytes.length + valueBytes.length);
+        plain.put(op);
+        plain.putLong(update);
+        plain.putLong(expire);
+        plain.putInt(keyBytes.length);
+        plain.put(keyBytes);
+        plain.put(valueBytes);
+        return AES.getDefault().encodeBytes(plain.array());
+    }
+
+    private static long crc32(@NonNull byte[] data) {
+        final CRC32 crc32 = new CRC32();
+        crc32.update(data, 0, data.length);
+        return crc32.getValue();
+    }
+
+    /**
+     * 剩余空间不足时扩大文件并重新映射
+     */
+    private void ensureCapacity(int length) throws Exception {
+        final long required = (long) mWritePosition + length;
+        int capacity = mBuffer.capacity();
+        if (required <= capacity) {
+            return;
+        }
+        long newCapacity = capacity;
+        while (newCapacity < required) {
+            newCapacity *= 2;
+        }
+        if (newCapacity > Integer.MAX_VALUE) {
+            throw new IllegalStateException("file too large " + mFile.getPath());
+        }
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, newCapacity);
+    }
+
+    private void removeLocked(@NonNull String key) throws Exception {
+        if (!mEntries.containsKey(key)) {
+            return;
+        }
+        append(OP_REMOVE, key, null, System.currentTimeMillis(), 0L);
+        mOrder.remove(key);
+        final Entry previous = mEntries.remove(key);
+        if (previous != null) {
+            mLiveBytes -= previous.length;
+        }
+    }
+
+    /**
+     * 将 key 移动到写入顺序的末尾
+     */
+    private void touchOrderLocked(@NonNull String key) {
+        mOrder.remove(key);
+        mOrder.add(key);
+    }
+
+    /**
+     * 按更新时间从旧到新的前 limit 个 key
+     */
+    @NonNull
+    private List<String> getOldestKeysLocked(int limit) {
+        final List<String> keys = new ArrayList<>(Math.min(limit, mOrder.size()));
+        final Iterator<String> iterator = mOrder.iterator();
+        while (keys.size() < limit && iterator.hasNext()) {
+            keys.add(iterator.next());
+        }
+        return keys;
+    }
+
+    /**
+     * 插入新数据后, 如果数据条数超过 maxRows, 删除少量最旧的数据
+     */
+    private void evictIfNeeded() throws Exception {
+        if (mMaxRows <= 0) {
+            return;
+        }
+        final int excess = mEntries.size() - mMaxRows;
+        if (excess <= 0) {
+            return;
+        }
+        final List<String> keys = getOldestKeysLocked(Math.min(excess, EVICT_BATCH_SIZE));
+        for (String key : keys) {
+            removeLocked(key);
+        }
+        final OnEvictListener listener = mOnEvictListener;
+        if (listener != null) {
+            listener.onEvict(new HashSet<>(keys));
+        }
+    }
+
+    /**
+     * 写入后检查是否需要按大小删除旧数据或者重写文件
+     */
+    private void onWritten() {
+        if (mMaxBytes > 0 && mLiveBytes > mMaxBytes && !mTrimBytesScheduled) {
+            mTrimBytesScheduled = true;
+            Threads.postBackground(() -> {
+                synchronized (mLock) {
+                    mTrimBytesScheduled = false;
+                }
+                if (trimBytes(mMaxBytes) > 0) {
+                    final OnEvictListener listener = mOnEvictListener;
+                    if (listener != null) {
+                        listener.onEvict(null);
+                    }
+                }
+            });
+        }
+
+        final long garbageBytes = mWritePosition - HEADER_LENGTH - mLiveBytes;
+        if (garbageBytes > MIN_COMPACT_BYTES && garbageBytes > mLiveBytes && !mCompactScheduled) {
+            mCompactScheduled = true;
+            Threads.postBackground(this::compact);
+        }
+    }
+
+    /**
+     * 将全部有效数据写入新文件, 完成后替换旧文件
+     */
+    private void compact() {
+        synchronized (mLock) {
+            mCompactScheduled = false;
+            final File tmpFile = new File(mFile.getPath() + ".tmp");
+            RandomAccessFile tmpRandomAccessFile = null;
+            FileChannel tmpChannel = null;
+            try {
+                final long now = System.currentTimeMillis();
+                final Map<String, Entry> compacted = new HashMap<>();
+                final List<String> compactedOrder = new ArrayList<>();
+                final List<byte[]> records = new ArrayList<>();
+                long liveBytes = 0L;
+                // 按写入顺序写入新文件, 回放时保持同样的顺序
+                for (String key : mOrder) {
+                    final Entry entry = mEntries.get(key);
+                    if (entry == null || entry.isExpired(now)) {
+                        continue;
+                    }
+                    final byte[] payload = encodeRecord(OP_PUT, key, entry.value, entry.update, entry.expire);
+                    final int recordLength = RECORD_HEADER_LENGTH + payload.length;
+                    records.add(payload);
+                    compacted.put(key, new Entry(entry.value, entry.update, entry.expire, recordLength));
+                    compactedOrder.add(key);
+                    liveBytes += recordLength;
+                }
+
+                final ByteBuffer buffer = ByteBuffer.allocate((int) (HEADER_LENGTH + liveBytes + 4));
+                writeHeader(buffer);
+                buffer.position(HEADER_LENGTH);
+                for (byte[] payload : records) {
+                    buffer.putInt(payload.length);
+                    buffer.putInt((int) crc32(payload));
+                    buffer.put(payload);
+                }
+                buffer.putInt(0);
+                buffer.flip();
+
+                tmpFile.delete();
+                tmpRandomAccessFile = new RandomAccessFile(tmpFile, "rw");
+                tmpChannel = tmpRandomAccessFile.getChannel();
+                while (buffer.hasRemaining()) {
+                    tmpChannel.write(buffer);
+                }
+                tmpChannel.force(true);
+                IOUtil.closeQuietly(tmpChannel);
+                IOUtil.closeQuietly(tmpRandomAccessFile);
+                tmpChannel = null;
+                tmpRandomAccessFile = null;
+
+                closeFile();
+                if (!tmpFile.renameTo(mFile)) {
+                    throw new IllegalStateException("fail to rename " + tmpFile.getPath());
+                }
+                openFile();
+                mWritePosition = (int) (HEADER_LENGTH + liveBytes);
+                mLiveBytes = liveBytes;
+                // 不清空索引, 避免并发的读操作读不到数据
+                mEntries.putAll(compacted);
+                mEntries.keySet().retainAll(compacted.keySet());
+                mOrder.clear();
+                mOrder.addAll(compactedOrder);
+                CoreLog.v("compacted %s rows to %s bytes, %s", compacted.size(), mWritePosition, mFile.getPath());
+            } catch (Throwable e) {
+                e.printStackTrace();
+                IOUtil.closeQuietly(tmpChannel);
+                IOUtil.closeQuietly(tmpRandomAccessFile);
+                tmpFile.delete();
+                if (mChannel == null) {
+                    // 旧文件已关闭但是替换失败, 重新打开旧文件
+                    try {
+                        mEntries.clear();
+                        mOrder.clear();
+                        mLiveBytes = 0L;
+                        load();
+                    } catch (Throwable e2) {
+                        e2.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param expire 过期时间, 小于等于 0 表示永不过期
+     */
+    private static boolean isExpired(long expire, long now) {
+        return expire > 0 && expire <= now;
+    }
+
+    private static final class Entry {
+        @NonNull
+        final String value;
+        final long update;
+        final long expire;
+        /**
+         * 在文件中对应的记录占用的字节数
+         */
+        final int length;
+
+        Entry(@NonNull String value, long update, long expire, int length) {
+            this.value = value;
+            this.update = update;
+            this.expire = expire;
+            this.length = length;
+        }
+
+        boolean isExpired(long now) {
+            return MappedDB.isExpired(expire, now);
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package io.github.idonans.core.db;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import io.github.idonans.core.Constants;
+import io.github.idonans.core.util.ContextUtil;
+
+/**
+ * 不提供任何数据, 只用于声明 authority, 多进程共享的 SimpleDB 通过该 authority 下的 Uri 在进程间通知数据变更.
+ *
+ * @see SimpleDB.Config#setMultiProcess(boolean)
+ */
+public class SharedDBProvider extends ContentProvider {
+
+    public static String getAuthority() {
+        return Constants.GLOBAL_PREFIX + ContextUtil.getContext().getPackageName() + ".SharedDBProvider";
+    }
+
+    @NonNull
+    static Uri getChangeUri(@NonNull String databaseName) {
+        return Uri.parse("content://" + getAuthority() + "/" + databaseName);
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        return null;
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        return 0;
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
+        return 0;
+    }
+
+}
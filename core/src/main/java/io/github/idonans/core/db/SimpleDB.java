@@ -1,96 +1,764 @@
 package io.github.idonans.core.db;
 
-import android.content.ContentValues;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
 import android.text.TextUtils;
+import android.util.LruCache;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import io.github.idonans.core.AbortException;
+import io.github.idonans.core.AbortSignal;
+import io.github.idonans.core.Charsets;
 import io.github.idonans.core.Constants;
 import io.github.idonans.core.CoreLog;
+import io.github.idonans.core.Progress;
 import io.github.idonans.core.manager.ProcessManager;
 import io.github.idonans.core.security.AES;
+import io.github.idonans.core.thread.Threads;
+import io.github.idonans.core.util.AbortUtil;
 import io.github.idonans.core.util.ContextUtil;
 import io.github.idonans.core.util.IOUtil;
+import io.github.idonans.core.util.ParseUtil;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * 基于 SQLite 模拟 KV 数据库. 不同的进程使用不同的数据库
+ * 基于 SQLite 模拟 KV 数据库. 不同的进程使用不同的数据库, 开启 {@linkplain Config#setMultiProcess(boolean)} 时多个进程共享同一个数据库.
+ * <p>
+ * v1: value 为 AES 加密后的文本.<br>
+ * v2: value 为 {@linkplain ValueCodec} 格式的 BLOB. 从 v1 升级时表结构不变, 旧数据在后台分批转换, 转换完成前两种格式同时可读.<br>
+ * v3: 增加 bucket 索引列, 用于按 key 前缀查询, 见 {@linkplain #getByPrefix(String)}.<br>
+ * v4: 增加过期时间列, 见 {@linkplain #set(String, String, long)}.<br>
+ * v5: 增加数据大小列, 见 {@linkplain #trimBytes(long)}.
+ * <p>
+ * 开启 {@linkplain Config#setSharedDatabaseName(String)} 时多个 SimpleDB 共用同一个数据库文件, 每个 SimpleDB 使用独立的表.
+ * <p>
+ * 开启 {@linkplain Config#setSnapshotEnabled(boolean)} 时全部数据在后台加载为内存中的不可变快照, 读操作直接查询快照.
+ * <p>
+ * 开启 {@linkplain Config#setBloomFilterEnabled(boolean)} 时读取不存在的 key 大概率不需要加密 key 与查询数据库.
  */
-public class SimpleDB {
+public class SimpleDB implements StorageEngine {
 
-    private static final int DB_VERSION = 1;
+    private static final int DB_VERSION = 5;
 
     private static final String TABLE_NAME = "t_simple";
+    private static final String INDEX_PREFIX = "index_simple_";
     private static final String COLUMN_KEY = "c_key";
     private static final String COLUMN_VALUE = "c_value";
     private static final String COLUMN_UPDATE = "c_update";
+    private static final String COLUMN_BUCKET = "c_bucket";
+    private static final String COLUMN_EXPIRE = "c_expire";
     private static final String SQL_CREATE_TABLE =
-            "create table t_simple ("
+            "create table if not exists t_simple ("
                     + "c_key text not null primary key"
-                    + ",c_value text"
+                    + ",c_value blob"
                     + ",c_update integer"
+                    + ",c_bucket text"
+                    + ",c_expire integer not null default 0"
+                    + ",c_size integer not null default 0"
                     + ")";
     private static final String SQL_CREATE_INDEX =
-            "create index index_simple_update on t_simple(c_update)";
+            "create index if not exists index_simple_update on t_simple(c_update)";
+    private static final String SQL_ADD_COLUMN_BUCKET =
+            "alter table t_simple add column c_bucket text";
+    private static final String SQL_CREATE_INDEX_BUCKET =
+            "create index if not exists index_simple_bucket on t_simple(c_bucket)";
+    private static final String SQL_ADD_COLUMN_EXPIRE =
+            "alter table t_simple add column c_expire integer not null default 0";
+    private static final String SQL_CREATE_INDEX_EXPIRE =
+            "create index if not exists index_simple_expire on t_simple(c_expire)";
+    private static final String SQL_ADD_COLUMN_SIZE =
+            "alter table t_simple add column c_size integer not null default 0";
+    private static final String SQL_INIT_COLUMN_SIZE =
+            "update t_simple set c_size=length(c_key)+length(c_value)";
+
+    /**
+     * 共用数据库文件时记录每张表的版本, 独占数据库文件时使用数据库的版本号
+     */
+    private static final String SQL_CREATE_TABLE_META =
+            "create table if not exists t_meta (c_table text not null primary key, c_version integer not null)";
+    private static final String SQL_SELECT_TABLE_VERSION =
+            "select c_version from t_meta where c_table=?";
+    private static final String SQL_REPLACE_TABLE_VERSION =
+            "insert or replace into t_meta(c_table,c_version) values(?,?)";
+    private static final String SQL_COUNT_TABLE =
+            "select count(*) from sqlite_master where type='table' and name=?";
+    /**
+     * 加入版本记录之前, 共用数据库文件中的表按 v5 的表结构创建
+     */
+    private static final int SHARED_TABLE_UNVERSIONED = 5;
+    private static final String SQL_SELECT_LEGACY_ROWS =
+            "select * from t_simple";
+    /**
+     * t_meta 中记录已复制之前独占使用的数据库文件的标记(表名加后缀), 表名中不会出现 #
+     */
+    private static final String LEGACY_COPIED_SUFFIX = "#legacy";
+
+    /**
+     * key 中层级之间的分隔符, key 中最后一个分隔符及之前的部分为该 key 的 bucket, 如 user:123:name 的 bucket 为 user:123:
+     */
+    public static final String BUCKET_SPLIT = ":";
+    /**
+     * 不包含分隔符的 key 的 bucket 列的值, 与 null (尚未建立索引) 区分
+     */
+    private static final String BUCKET_NONE = "";
+
+    private static final String SQL_SELECT_VALUE =
+            "select c_value, c_expire from t_simple where c_key=?";
+    /**
+     * forEach 每次从数据库中读取的条数
+     */
+    private static final int FOR_EACH_PAGE_SIZE = 200;
+    /**
+     * 旧版本 SQLite 中一条语句最多可以绑定的参数个数
+     */
+    private static final int MAX_SQL_ARGS = 999;
+    private static final String SQL_SELECT_MANY_PREFIX =
+            "select c_key,c_value,c_expire from t_simple where c_key in (";
+
+    private static final String SQL_EXPORT_FIRST_PAGE =
+            "select c_key,c_value,c_update,c_expire,c_bucket from t_simple"
+                    + " order by c_key limit " + FOR_EACH_PAGE_SIZE;
+    private static final String SQL_EXPORT_NEXT_PAGE =
+            "select c_key,c_value,c_update,c_expire,c_bucket from t_simple where c_key>?"
+                    + " order by c_key limit " + FOR_EACH_PAGE_SIZE;
+
+    /**
+     * 导出格式, 见 {@linkplain #exportTo(OutputStream, AbortSignal, Progress)}
+     */
+    private static final int EXPORT_MAGIC = 0x53444231;
+    private static final int EXPORT_VERSION = 1;
+    private static final byte EXPORT_ROW_END = 0;
+    private static final byte EXPORT_ROW_BLOB = 1;
+    private static final byte EXPORT_ROW_TEXT = 2;
+    /**
+     * 导入时每个事务中写入的条数
+     */
+    private static final int IMPORT_BATCH_SIZE = 200;
+
+    private static final String SQL_COUNT_RANGE =
+            "select count(*) from t_simple where c_update>=? and c_update<=?";
+    private static final String SQL_SELECT_FIRST_PAGE =
+            "select c_key, c_value, c_update, c_expire from t_simple"
+                    + " where c_update>=? and c_update<=?"
+                    + " order by c_update desc, c_key desc limit " + FOR_EACH_PAGE_SIZE;
+    private static final String SQL_SELECT_NEXT_PAGE =
+            "select c_key, c_value, c_update, c_expire from t_simple"
+                    + " where c_update>=? and (c_update<? or (c_update=? and c_key<?))"
+                    + " order by c_update desc, c_key desc limit " + FOR_EACH_PAGE_SIZE;
+    private static final String SQL_SELECT_LEGACY_VALUES =
+            "select c_key, c_value from t_simple where typeof(c_value)='text' limit ";
+    private static final String SQL_UPDATE_LEGACY_VALUE =
+            "update t_simple set c_value=?, c_size=? where c_key=? and typeof(c_value)='text'";
+    private static final String SQL_SELECT_BY_BUCKET =
+            "select c_key, c_value, c_expire from t_simple where c_bucket=?";
+    private static final String SQL_SELECT_UNINDEXED_KEYS =
+            "select c_key from t_simple where c_bucket is null limit ";
+    private static final String SQL_UPDATE_BUCKET =
+            "update t_simple set c_bucket=? where c_key=?";
+    private static final String SQL_UPDATE_ROW =
+            "update t_simple set c_value=?2,c_update=?3,c_bucket=?4,c_expire=?5,c_size=?6 where c_key=?1";
+    private static final String SQL_REPLACE =
+            "insert or replace into t_simple(c_key,c_value,c_update,c_bucket,c_expire,c_size) values(?,?,?,?,?,?)";
+    private static final String SQL_INSERT_IGNORE =
+            "insert or ignore into t_simple(c_key,c_value,c_update,c_bucket,c_expire,c_size) values(?,?,?,?,?,?)";
+    private static final String SQL_TOUCH =
+            "update t_simple set c_update=? where c_key=?";
+    /**
+     * 延迟写入访问时间时, 不能覆盖之后写入数据时更新的时间
+     */
+    private static final String SQL_TOUCH_DEFERRED =
+            "update t_simple set c_update=?1 where c_key=?2 and c_update<?1";
+    private static final String SQL_DELETE =
+            "delete from t_simple where c_key=?";
+    private static final String SQL_SUM_SIZE =
+            "select sum(c_size) from t_simple";
+    private static final String SQL_SELECT_SIZE_BY_UPDATE =
+            "select c_update, c_size from t_simple order by c_update asc";
+    private static final String SQL_COUNT =
+            "select count(*) from t_simple";
+    private static final String SQL_SELECT_OLDEST_KEYS =
+            "select c_key from t_simple order by c_update asc limit ?";
+    private static final String SQL_WHERE_KEY_EXPIRED =
+            "c_key=? and c_expire>0 and c_expire<=?";
+    /**
+     * 多进程共享时使用的变更记录表, 由触发器维护, c_seq 为递增的变更序号, c_writer 为写入方的标识
+     */
+    private static final String SQL_CREATE_TABLE_CHANGE =
+            "create table if not exists t_change (c_seq integer primary key autoincrement, c_key text, c_writer text)";
+    private static final String SQL_ADD_COLUMN_WRITER =
+            "alter table t_change add column c_writer text";
+    /**
+     * 旧版本使用的不区分写入方的触发器
+     */
+    private static final String[] SQL_DROP_LEGACY_TRIGGERS = {
+            "drop trigger if exists tr_simple_insert",
+            "drop trigger if exists tr_simple_update",
+            "drop trigger if exists tr_simple_delete",
+    };
+    /**
+     * 每个连接使用各自的临时触发器, 记录中写入当前实例的标识 (参数 %1$s), 同步时跳过自己写入的记录.
+     * 写操作只在主连接上执行, 因此只需要在主连接上创建.
+     */
+    private static final String SQL_CREATE_TRIGGER_INSERT =
+            "create temp trigger if not exists tr_simple_insert_local after insert on main.t_simple"
+                    + " begin insert into t_change(c_key,c_writer) values(new.c_key,'%1$s'); end";
+    private static final String SQL_CREATE_TRIGGER_UPDATE =
+            "create temp trigger if not exists tr_simple_update_local after update of c_value,c_expire on main.t_simple"
+                    + " begin insert into t_change(c_key,c_writer) values(new.c_key,'%1$s'); end";
+    private static final String SQL_CREATE_TRIGGER_DELETE =
+            "create temp trigger if not exists tr_simple_delete_local after delete on main.t_simple"
+                    + " begin insert into t_change(c_key,c_writer) values(old.c_key,'%1$s'); end";
+    private static final String SQL_CHANGE_RANGE =
+            "select ifnull(min(c_seq),0),ifnull(max(c_seq),0) from t_change";
+    private static final String SQL_SELECT_CHANGES =
+            "select c_seq,c_key,c_writer from t_change where c_seq>? order by c_seq";
+    private static final String SQL_PRUNE_CHANGES =
+            "delete from t_change where c_seq<=?";
+
+    private static final String SQL_DELETE_EXPIRED =
+            "delete from t_simple where c_key in"
+                    + " (select c_key from t_simple where c_expire>0 and c_expire<=? limit ?)";
+
+    /**
+     * 每个事务中转换的 v1 数据的条数
+     */
+    private static final int MIGRATE_BATCH_SIZE = 100;
+    /**
+     * 清理过期数据时每次删除的最大条数
+     */
+    private static final int SWEEP_BATCH_SIZE = 50;
+    /**
+     * 数据条数超出上限时, 每次写入后最多删除的旧数据的条数
+     */
+    private static final int EVICT_BATCH_SIZE = 8;
+    /**
+     * 变更记录表中保留的最大条数
+     */
+    private static final int MAX_CHANGE_LOG_SIZE = 1000;
+    /**
+     * 延迟写入的访问记录达到该数量时立即在后台写入
+     */
+    private static final int TOUCH_FLUSH_THRESHOLD = 64;
+    /**
+     * 延迟写入的访问记录最长的等待时间
+     */
+    private static final long TOUCH_FLUSH_DELAY_MS = 5000L;
+    /**
+     * 同步变更时, 变更的 key 超过该数量则直接清空全部缓存
+     */
+    private static final int MAX_SYNC_CHANGES = 200;
+    /**
+     * 布隆过滤器的最小容量
+     */
+    private static final int BLOOM_FILTER_MIN_CAPACITY = 1024;
+    /**
+     * key 加密结果缓存的最大条数
+     */
+    private static final int KEY_CACHE_SIZE = 512;
+
+    /**
+     * key 的加密结果是固定的(stable), 所有 SimpleDB 共用一个缓存, 原始 key -> 加密后的 key
+     */
+    private static final LruCache<String, String> sEncodedKeys = new LruCache<>(KEY_CACHE_SIZE);
+
+    /**
+     * 数据条数的上限, 小于等于 0 时不限制
+     */
+    private final int mMaxRows;
+    /**
+     * 当前的数据条数, 小于 0 表示未知, 在下一次新增数据时重新统计
+     */
+    private final AtomicInteger mRowCount = new AtomicInteger(-1);
+
+    /**
+     * 数据总大小(字节)的上限, 小于等于 0 时不限制
+     */
+    private final long mMaxBytes;
+    /**
+     * 上次按大小清理之后写入的数据大小, 累计超过上限的一定比例后在后台触发一次清理
+     */
+    private final AtomicLong mBytesSinceTrim = new AtomicLong();
+    private final AtomicBoolean mTrimBytesScheduled = new AtomicBoolean();
+
+    /**
+     * 是否延迟写入 touch 的访问时间
+     */
+    private final boolean mDeferredTouchEnabled;
+    /**
+     * 尚未写入的访问记录, key -> 访问时间
+     */
+    private final Map<String, Long> mPendingTouches = new ConcurrentHashMap<>();
+    private final AtomicBoolean mTouchFlushScheduled = new AtomicBoolean();
+
+    /**
+     * 是否维护 bucket 索引
+     */
+    private final boolean mBucketIndexEnabled;
+    /**
+     * 已有数据的 bucket 索引是否已经补全, 补全之前按前缀查询时遍历全部数据
+     */
+    private volatile boolean mBucketIndexReady;
 
     private final SQLiteOpenHelper mOpenHelper;
 
+    /**
+     * 共用数据库文件时, 数据库名 -> SQLiteOpenHelper
+     */
+    private static final Map<String, SQLiteOpenHelper> sSharedOpenHelpers = new HashMap<>();
+
+    /**
+     * 当前使用的表名, 独占数据库文件时为 t_simple
+     */
+    @NonNull
+    private final String mTableName;
+    /**
+     * 共用数据库文件时, 表与索引是否已经创建并升级到当前版本
+     */
+    private volatile boolean mTableReady;
+    /**
+     * 共用数据库文件时, 该 SimpleDB 之前独占使用的数据库文件名, 在后台复制其中的数据. 独占数据库文件时为 null
+     */
+    @Nullable
+    private final String mLegacyDatabaseName;
+    /**
+     * 存在之前独占使用的数据库文件时, 在后台复制完成之前其它线程的读写需要等待, 复制完成后为 null
+     */
+    @Nullable
+    private volatile CountDownLatch mLegacyCopyLatch;
+    /**
+     * 替换表名与索引名之后的 SQL 语句
+     */
+    private final Map<String, String> mSqlCache = new ConcurrentHashMap<>();
+
+    /**
+     * 多进程共享时用于跨进程通知数据变更, 否则为 null
+     */
+    @Nullable
+    private final Uri mChangeUri;
+    @Nullable
+    private final ContentObserver mChangeObserver;
+    private final AtomicBoolean mNotifyChangeScheduled = new AtomicBoolean();
+    private final Object mSyncChangesLock = new Object();
+    /**
+     * 已经同步到的变更序号, 小于 0 表示尚未同步
+     */
+    private volatile long mChangeSeq = -1L;
+    /**
+     * 多进程共享时写入变更记录的标识, 每个实例不同, 只包含十六进制字符
+     */
+    private final String mWriterTag = UUID.randomUUID().toString().replace("-", "");
+    @Nullable
+    private volatile OnExternalChangeListener mOnExternalChangeListener;
+    @Nullable
+    private volatile OnEvictListener mOnEvictListener;
+
+    /**
+     * 高频操作使用的预编译语句
+     */
+    private final StatementPool mUpdateRowStatements = new StatementPool(SQL_UPDATE_ROW);
+    private final StatementPool mInsertIgnoreStatements = new StatementPool(SQL_INSERT_IGNORE);
+    private final StatementPool mTouchStatements = new StatementPool(SQL_TOUCH);
+    private final StatementPool mDeleteStatements = new StatementPool(SQL_DELETE);
+
+    /**
+     * 已解密数据的内存缓存(LRU), 为 null 时表示不使用缓存
+     */
+    @Nullable
+    private final LruCache<String, CacheEntry> mCache;
+    private final Object mCacheLock = new Object();
+    /**
+     * 每次写操作都会递增, 用于丢弃与写操作并发的读取结果, 避免旧值回填到缓存中
+     */
+    private long mCacheVersion;
+
+    /**
+     * 是否使用全量的内存快照
+     */
+    private final boolean mSnapshotEnabled;
+    /**
+     * 全量数据的不可变快照, 写操作时复制后替换(copy-on-write). 为 null 时表示尚未加载完成.
+     * 不存在的 key 表示数据库中没有该 key, value 为 {@linkplain #SNAPSHOT_STALE} 的 key 需要从数据库中读取.
+     */
+    @Nullable
+    private volatile Map<String, CacheEntry> mSnapshot;
+    private final Object mSnapshotLock = new Object();
+    /**
+     * 每次写操作都会递增, 用于丢弃与写操作并发的加载结果
+     */
+    private long mSnapshotVersion;
+    private final AtomicBoolean mSnapshotRefreshScheduled = new AtomicBoolean();
+    /**
+     * 当前线程正在执行的事务中写入的 key, 为 null 时表示当前线程不在事务中.
+     * 开启 WAL 时其它线程的读取与后台刷新快照使用其它连接, 事务提交之前读取到的仍是旧值,
+     * 因此事务结束后再次清除这些 key 的缓存并标记快照.
+     */
+    private final ThreadLocal<TransactionKeys> mTransactionKeys = new ThreadLocal<>();
+
+    /**
+     * 是否使用布隆过滤器过滤不存在的 key
+     */
+    private final boolean mBloomFilterEnabled;
+    /**
+     * 包含全部已有的 key, 为 null 时表示尚未建立完成
+     */
+    @Nullable
+    private volatile BloomFilter mBloomFilter;
+    /**
+     * 正在重建的布隆过滤器, 重建期间写入的 key 同时加入其中
+     */
+    @Nullable
+    private volatile BloomFilter mBuildingBloomFilter;
+    private final AtomicBoolean mBloomFilterRebuildScheduled = new AtomicBoolean();
+    /**
+     * 上次重建之后删除的条数, 删除的 key 无法从布隆过滤器中移除, 积累到一定数量后重建
+     */
+    private final AtomicInteger mBloomFilterRemovals = new AtomicInteger();
+    /**
+     * 布隆过滤器中的 key 的数量(包括已删除的), 超出容量后重建
+     */
+    private final AtomicInteger mBloomFilterKeys = new AtomicInteger();
+    private final AtomicInteger mBloomFilterNegativeCount = new AtomicInteger();
+    private final AtomicInteger mBloomFilterFalsePositiveCount = new AtomicInteger();
+
     /**
      * 实现中会在数据库名前附加当前进程标识
      */
     public SimpleDB(@NonNull String databaseName) {
+        this(databaseName, 0);
+    }
+
+    /**
+     * 实现中会在数据库名前附加当前进程标识
+     *
+     * @param maxCacheSize 内存缓存的最大条数, 小于等于 0 时不使用缓存
+     */
+    public SimpleDB(@NonNull String databaseName, int maxCacheSize) {
+        this(databaseName, new Config().setMaxCacheSize(maxCacheSize));
+    }
+
+    /**
+     * 实现中会在数据库名前附加当前进程标识
+     *
+     * @param config 为 null 时使用默认配置
+     */
+    public SimpleDB(@NonNull String databaseName, @Nullable Config config) {
         CoreLog.v("init");
-        String dbName = Constants.GLOBAL_PREFIX + ProcessManager.getInstance().getProcessTag() + "_" + databaseName;
-        mOpenHelper =
-                new SQLiteOpenHelper(ContextUtil.getContext(), dbName, null, DB_VERSION) {
-                    @Override
-                    public void onCreate(SQLiteDatabase db) {
-                        db.execSQL(SQL_CREATE_TABLE);
-                        db.execSQL(SQL_CREATE_INDEX);
-                    }
+        if (config == null) {
+            config = new Config();
+        }
+        final int maxCacheSize = config.getMaxCacheSize();
+        mCache = maxCacheSize > 0 ? new LruCache<>(maxCacheSize) : null;
+        mBucketIndexEnabled = config.isBucketIndexEnabled();
+        mMaxBytes = config.getMaxBytes();
+        mMaxRows = config.getMaxRows();
+        mDeferredTouchEnabled = config.isDeferredTouchEnabled();
+        mSnapshotEnabled = config.isSnapshotEnabled();
+        final boolean multiProcess = config.isMultiProcess();
+        if (multiProcess && config.isBloomFilterEnabled()) {
+            // 其它进程写入的 key 无法及时加入布隆过滤器
+            CoreLog.e("%s: bloom filter not support multi process, bloom filter is disabled", databaseName);
+        }
+        mBloomFilterEnabled = config.isBloomFilterEnabled() && !multiProcess;
+        String sharedDatabaseName = config.getSharedDatabaseName();
+        if (multiProcess && sharedDatabaseName != null) {
+            CoreLog.e("%s: shared database not support multi process, shared database name is ignored", databaseName);
+            sharedDatabaseName = null;
+        }
+        final String dbName;
+        if (multiProcess) {
+            dbName = Constants.GLOBAL_PREFIX + "shared_" + databaseName;
+        } else if (sharedDatabaseName != null) {
+            dbName = Constants.GLOBAL_PREFIX + ProcessManager.getInstance().getProcessTag() + "_" + sharedDatabaseName;
+        } else {
+            dbName = Constants.GLOBAL_PREFIX + ProcessManager.getInstance().getProcessTag() + "_" + databaseName;
+        }
+        if (sharedDatabaseName != null) {
+            mTableName = TABLE_NAME + "_" + toTableId(databaseName);
+            final String legacyDatabaseName = Constants.GLOBAL_PREFIX + ProcessManager.getInstance().getProcessTag() + "_" + databaseName;
+            mLegacyDatabaseName = legacyDatabaseName.equals(dbName) ? null : legacyDatabaseName;
+            mOpenHelper = obtainSharedOpenHelper(dbName);
+        } else {
+            mTableName = TABLE_NAME;
+            mLegacyDatabaseName = null;
+            mTableReady = true;
+            mOpenHelper = new SQLiteOpenHelper(ContextUtil.getContext(), dbName, null, DB_VERSION) {
+                @Override
+                public void onCreate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_TABLE);
+                    db.execSQL(SQL_CREATE_INDEX);
+                    db.execSQL(SQL_CREATE_INDEX_BUCKET);
+                    db.execSQL(SQL_CREATE_INDEX_EXPIRE);
+                }
 
-                    @Override
-                    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-                        throw new IllegalAccessError("not support upgrade from version " + oldVersion + " to " + newVersion);
+                @Override
+                public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+                    upgradeTable(db, oldVersion, newVersion);
+                }
+
+                @Override
+                public void onOpen(SQLiteDatabase db) {
+                    if (multiProcess) {
+                        db.execSQL(SQL_CREATE_TABLE_CHANGE);
+                        addChangeWriterColumn(db);
+                        for (String sql : SQL_DROP_LEGACY_TRIGGERS) {
+                            db.execSQL(sql);
+                        }
+                        db.execSQL(String.format(SQL_CREATE_TRIGGER_INSERT, mWriterTag));
+                        db.execSQL(String.format(SQL_CREATE_TRIGGER_UPDATE, mWriterTag));
+                        db.execSQL(String.format(SQL_CREATE_TRIGGER_DELETE, mWriterTag));
                     }
-                };
+                }
+            };
+        }
+        if (config.isWriteAheadLoggingEnabled()) {
+            // WAL 模式下读操作使用连接池中的其它连接, 可以与写操作并发执行
+            mOpenHelper.setWriteAheadLoggingEnabled(true);
+        }
+        if (multiProcess) {
+            mChangeUri = SharedDBProvider.getChangeUri(dbName);
+            mChangeObserver = new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    Threads.postBackground(SimpleDB.this::syncChanges);
+                }
+            };
+            ContextUtil.getContext().getContentResolver().registerContentObserver(mChangeUri, false, mChangeObserver);
+        } else {
+            mChangeUri = null;
+            mChangeObserver = null;
+        }
+        if (mLegacyDatabaseName != null
+                && ContextUtil.getContext().getDatabasePath(mLegacyDatabaseName).exists()) {
+            // 在其它后台任务之前开始复制, 这些任务需要等待复制完成
+            mLegacyCopyLatch = new CountDownLatch(1);
+            Threads.postBackground(this::copyLegacyDatabase);
+        }
+        Threads.postBackground(() -> {
+            if (multiProcess) {
+                syncChanges();
+            }
+            migrateLegacyValues();
+            if (mBucketIndexEnabled) {
+                buildBucketIndex();
+            }
+        });
+        if (mSnapshotEnabled) {
+            scheduleRefreshSnapshot();
+        }
+        if (mBloomFilterEnabled) {
+            scheduleRebuildBloomFilter();
+        }
+    }
+
+    /**
+     * 打开数据库(包括创建与升级)并预编译高频使用的语句
+     */
+    @Override
+    public void prewarm() {
+        try {
+            mUpdateRowStatements.release(mUpdateRowStatements.acquire());
+            mInsertIgnoreStatements.release(mInsertIgnoreStatements.acquire());
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
     }
 
+    @Override
     @Nullable
     public String get(@Nullable String key) {
+        final Object value = getObject(key);
+        return value != null ? ValueCodec.toString(value) : null;
+    }
+
+    /**
+     * 读取通过 {@linkplain #setInt(String, int)} 写入的数据, 其它数值类型或者文本会被转换, 不存在或者无法转换时返回 defaultValue
+     */
+    public int getInt(@Nullable String key, int defaultValue) {
+        final Object value = getObject(key);
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        if (value instanceof String) {
+            return ParseUtil.getInt((String) value, defaultValue);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * 读取通过 {@linkplain #setLong(String, long)} 写入的数据, 其它数值类型或者文本会被转换, 不存在或者无法转换时返回 defaultValue
+     */
+    public long getLong(@Nullable String key, long defaultValue) {
+        final Object value = getObject(key);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String) {
+            return ParseUtil.getLong((String) value, defaultValue);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * 读取通过 {@linkplain #setBoolean(String, boolean)} 写入的数据, 文本 "true" 与 "false" 会被转换, 不存在或者无法转换时返回 defaultValue
+     */
+    public boolean getBoolean(@Nullable String key, boolean defaultValue) {
+        final Object value = getObject(key);
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if ("true".equals(value)) {
+            return true;
+        }
+        if ("false".equals(value)) {
+            return false;
+        }
+        return defaultValue;
+    }
+
+    /**
+     * 读取通过 {@linkplain #setDouble(String, double)} 写入的数据, 其它数值类型或者文本会被转换, 不存在或者无法转换时返回 defaultValue
+     */
+    public double getDouble(@Nullable String key, double defaultValue) {
+        final Object value = getObject(key);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof String) {
+            return ParseUtil.getDouble((String) value, defaultValue);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * 读取通过 {@linkplain #setBytes(String, byte[])} 写入的数据, 不存在或者不是 byte[] 类型时返回 null
+     */
+    @Nullable
+    public byte[] getBytes(@Nullable String key) {
+        final Object value = getObject(key);
+        if (value instanceof byte[]) {
+            // 缓存中的数组不能被外部修改
+            return ((byte[]) value).clone();
+        }
+        return null;
+    }
+
+    /**
+     * 按写入时的类型读取, 返回 String, Integer, Long, Boolean, Double 或者 byte[]
+     */
+    @Nullable
+    private Object getObject(@Nullable String key) {
         if (TextUtils.isEmpty(key)) {
             return null;
         }
 
+        final Map<String, CacheEntry> snapshot = mSnapshot;
+        if (snapshot != null) {
+            final CacheEntry entry = snapshot.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry != SNAPSHOT_STALE && !isExpired(entry.expire, System.currentTimeMillis())) {
+                return entry.value;
+            }
+        }
+
+        final BloomFilter bloomFilter = mBloomFilter;
+        if (bloomFilter != null && !bloomFilter.mightContain(key)) {
+            mBloomFilterNegativeCount.incrementAndGet();
+            return null;
+        }
+
+        final LruCache<String, CacheEntry> cache = mCache;
+        if (cache != null) {
+            final CacheEntry cached = cache.get(key);
+            if (cached != null) {
+                if (!isExpired(cached.expire, System.currentTimeMillis())) {
+                    if (cached.value == null && bloomFilter != null) {
+                        // 缓存中记录的不存在的 key
+                        mBloomFilterFalsePositiveCount.incrementAndGet();
+                    }
+                    return cached.value;
+                }
+                cache.remove(key);
+            }
+        }
+
+        return queryObject(key, bloomFilter != null);
+    }
+
+    /**
+     * 跳过缓存从数据库中读取, 读取结果放入缓存
+     */
+    @Nullable
+    private Object queryObject(@NonNull String key) {
+        return queryObject(key, false);
+    }
+
+    /**
+     * @param countFalsePositive 已经通过了布隆过滤器, 数据库中不存在该 key 时计为一次误判. 已过期或者读取出错时不计入
+     */
+    @Nullable
+    private Object queryObject(@NonNull String key, boolean countFalsePositive) {
+        final long cacheVersion = getCacheVersion();
+        final String originKey = key;
         Cursor cursor = null;
         try {
             key = encodeKey(key);
 
-            SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-            cursor =
-                    db.query(
-                            TABLE_NAME,
-                            new String[]{COLUMN_VALUE},
-                            COLUMN_KEY + "=?",
-                            new String[]{key},
-                            null,
-                            null,
-                            null);
+            // value 为 BLOB, 无法通过 SQLiteStatement#simpleQueryForString 读取, 见 StatementPool.
+            // 固定的 SQL 会命中连接内的预编译语句缓存, 不会重复解析.
+            SQLiteDatabase db = getReadableDatabase();
+            cursor = db.rawQuery(sql(SQL_SELECT_VALUE), new String[]{key});
+            Object value = null;
+            long expire = 0L;
             if (cursor.moveToFirst()) {
-                String value = cursor.getString(0);
-
-                if (value != null) {
-                    value = decodeValue(value);
+                expire = cursor.getLong(1);
+                final long now = System.currentTimeMillis();
+                if (isExpired(expire, now)) {
+                    // 惰性删除已过期的数据
+                    IOUtil.closeQuietly(cursor);
+                    cursor = null;
+                    final int count = getWritableDatabase()
+                            .delete(mTableName, SQL_WHERE_KEY_EXPIRED, new String[]{key, String.valueOf(now)});
+                    onRowsDeleted(count);
+                    return null;
                 }
-
-                return value;
+                value = readObject(cursor, 0);
+            } else if (countFalsePositive) {
+                mBloomFilterFalsePositiveCount.incrementAndGet();
             }
+
+            putCache(originKey, value, expire, cacheVersion);
+            return value;
         } catch (Throwable e) {
             e.printStackTrace();
         } finally {
@@ -99,158 +767,2085 @@ public class SimpleDB {
         return null;
     }
 
+    /**
+     * 批量读取. 先读取缓存, 未命中的 key 一次全部加密后通过 in 查询读取, 超过参数个数限制时分批查询.
+     * 结果中不包含不存在或者已过期的 key. 如果出错返回 null.
+     */
+    @Override
     @Nullable
-    public Map<String, String> getAll() {
-        Cursor cursor = null;
-        try {
-            Map<String, String> data = new HashMap<>();
-            SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-            cursor = db.query(TABLE_NAME,
-                    new String[]{COLUMN_KEY, COLUMN_VALUE},
-                    null,
-                    null,
-                    null,
-                    null,
-                    COLUMN_UPDATE + " desc");
-            for (; cursor.moveToNext(); ) {
-                String key = cursor.getString(0);
-                String value = cursor.getString(1);
-
+    public Map<String, String> getMany(@Nullable Collection<String> keys) {
+        final Map<String, String> data = new HashMap<>();
+        if (keys == null || keys.isEmpty()) {
+            return data;
+        }
+
+        final long now = System.currentTimeMillis();
+        final List<String> missingKeys = new ArrayList<>();
+        final Map<String, CacheEntry> snapshot = mSnapshot;
+        final BloomFilter bloomFilter = mBloomFilter;
+        final LruCache<String, CacheEntry> cache = mCache;
+        for (String key : keys) {
+            if (TextUtils.isEmpty(key) || data.containsKey(key)) {
+                continue;
+            }
+            if (snapshot != null) {
+                final CacheEntry entry = snapshot.get(key);
+                if (entry == null) {
+                    continue;
+                }
+                if (entry != SNAPSHOT_STALE && !isExpired(entry.expire, now)) {
+                    if (entry.value != null) {
+                        data.put(key, ValueCodec.toString(entry.value));
+                    }
+                    continue;
+                }
+            }
+            if (bloomFilter != null && !bloomFilter.mightContain(key)) {
+                mBloomFilterNegativeCount.incrementAndGet();
+                continue;
+            }
+            if (cache != null) {
+                final CacheEntry cached = cache.get(key);
+                if (cached != null) {
+                    if (!isExpired(cached.expire, now)) {
+                        if (cached.value != null) {
+                            data.put(key, ValueCodec.toString(cached.value));
+                        } else if (bloomFilter != null) {
+                            // 缓存中记录的不存在的 key
+                            mBloomFilterFalsePositiveCount.incrementAndGet();
+                        }
+                        continue;
+                    }
+                    cache.remove(key);
+                }
+            }
+            missingKeys.add(key);
+        }
+        if (missingKeys.isEmpty()) {
+            return data;
+        }
+
+        final long cacheVersion = getCacheVersion();
+        Cursor cursor = null;
+        try {
+            final Map<String, String> encodedKeys = new HashMap<>();
+            for (String key : missingKeys) {
+                encodedKeys.put(encodeKey(key), key);
+            }
+            final String[] args = encodedKeys.keySet().toArray(new String[0]);
+            final List<String> foundKeys = new ArrayList<>();
+            // 数据库中存在的 key 的数量, 包括已过期的
+            int rows = 0;
+
+            SQLiteDatabase db = getReadableDatabase();
+            for (int start = 0; start < args.length; start += MAX_SQL_ARGS) {
+                final int count = Math.min(MAX_SQL_ARGS, args.length - start);
+                final StringBuilder sql = new StringBuilder(sql(SQL_SELECT_MANY_PREFIX));
+                for (int i = 0; i < count; i++) {
+                    sql.append(i == 0 ? "?" : ",?");
+                }
+                sql.append(")");
+                final String[] chunkArgs = new String[count];
+                System.arraycopy(args, start, chunkArgs, 0, count);
+
+                cursor = db.rawQuery(sql.toString(), chunkArgs);
+                while (cursor.moveToNext()) {
+                    final String key = encodedKeys.get(cursor.getString(0));
+                    if (key == null) {
+                        continue;
+                    }
+                    rows++;
+                    final long expire = cursor.getLong(2);
+                    if (isExpired(expire, now)) {
+                        // 已过期的数据由 sweepExpired 删除
+                        continue;
+                    }
+                    final Object value = readObject(cursor, 1);
+                    foundKeys.add(key);
+                    putCache(key, value, expire, cacheVersion);
+                    if (value != null) {
+                        data.put(key, ValueCodec.toString(value));
+                    }
+                }
+                IOUtil.closeQuietly(cursor);
+                cursor = null;
+            }
+
+            if (bloomFilter != null && rows < args.length) {
+                // 通过了布隆过滤器但数据库中不存在的 key
+                mBloomFilterFalsePositiveCount.addAndGet(args.length - rows);
+            }
+
+            // 不存在的 key 同样放入缓存, 避免重复查询
+            if (cache != null && foundKeys.size() < missingKeys.size()) {
+                missingKeys.removeAll(foundKeys);
+                for (String key : missingKeys) {
+                    putCache(key, null, 0L, cacheVersion);
+                }
+            }
+            return data;
+        } catch (Throwable e) {
+            e.printStackTrace();
+        } finally {
+            IOUtil.closeQuietly(cursor);
+        }
+        return null;
+    }
+
+    @Override
+    @Nullable
+    public Map<String, String> getAll() {
+        Cursor cursor = null;
+        try {
+            Map<String, String> data = new HashMap<>();
+            SQLiteDatabase db = getReadableDatabase();
+            cursor = db.query(mTableName,
+                    new String[]{COLUMN_KEY, COLUMN_VALUE, COLUMN_EXPIRE},
+                    null,
+                    null,
+                    null,
+                    null,
+                    COLUMN_UPDATE + " desc");
+            final long now = System.currentTimeMillis();
+            for (; cursor.moveToNext(); ) {
+                if (isExpired(cursor.getLong(2), now)) {
+                    continue;
+                }
+                String key = cursor.getString(0);
+                String value = readValue(cursor, 1);
+
                 key = decodeKey(key);
-                value = decodeValue(value);
 
-                data.put(key, value);
+                data.put(key, value);
+            }
+            return data;
+        } catch (Throwable e) {
+            e.printStackTrace();
+        } finally {
+            IOUtil.closeQuietly(cursor);
+        }
+        return null;
+    }
+
+    /**
+     * 按更新时间倒序逐条遍历全部数据
+     *
+     * @see #forEach(long, long, RowVisitor, AbortSignal, Progress)
+     */
+    public int forEach(@NonNull RowVisitor visitor,
+                       @Nullable AbortSignal abortSignal,
+                       @Nullable Progress progress) {
+        return forEach(0L, Long.MAX_VALUE, visitor, abortSignal, progress);
+    }
+
+    /**
+     * 按更新时间倒序逐条遍历更新时间在 [minUpdate, maxUpdate] 之间的数据. 数据分页读取并在遍历时逐条解密,
+     * 内存占用与数据总量无关, 与 {@linkplain #getAll()} 相比适合数据量较大的场景. abortSignal 被设置后在下一条数据之前停止遍历.
+     * 可以通过上一次遍历到的最后一条数据的更新时间分段遍历.
+     *
+     * @param progress 总量为范围内数据的条数, 每遍历一条数据递增 1
+     * @return 已遍历的数据条数, 如果出错返回 -1.
+     */
+    public int forEach(long minUpdate,
+                       long maxUpdate,
+                       @NonNull RowVisitor visitor,
+                       @Nullable AbortSignal abortSignal,
+                       @Nullable Progress progress) {
+        int visited = 0;
+        try {
+            SQLiteDatabase db = getReadableDatabase();
+            final String min = String.valueOf(minUpdate);
+            final String max = String.valueOf(maxUpdate);
+
+            if (progress != null) {
+                Cursor countCursor = null;
+                try {
+                    countCursor = db.rawQuery(sql(SQL_COUNT_RANGE), new String[]{min, max});
+                    progress.set(countCursor.moveToFirst() ? countCursor.getLong(0) : 0L, 0L);
+                } finally {
+                    IOUtil.closeQuietly(countCursor);
+                }
+            }
+
+            String lastKey = null;
+            long lastUpdate = 0L;
+            int pageRows;
+            do {
+                AbortUtil.throwIfAbort(abortSignal);
+
+                pageRows = 0;
+                Cursor cursor = null;
+                try {
+                    if (lastKey == null) {
+                        cursor = db.rawQuery(sql(SQL_SELECT_FIRST_PAGE), new String[]{min, max});
+                    } else {
+                        final String update = String.valueOf(lastUpdate);
+                        cursor = db.rawQuery(sql(SQL_SELECT_NEXT_PAGE), new String[]{min, update, update, lastKey});
+                    }
+                    while (cursor.moveToNext()) {
+                        AbortUtil.throwIfAbort(abortSignal);
+
+                        pageRows++;
+                        lastKey = cursor.getString(0);
+                        lastUpdate = cursor.getLong(2);
+                        if (isExpired(cursor.getLong(3), System.currentTimeMillis())) {
+                            Progress.append(progress, 1);
+                            continue;
+                        }
+
+                        final String key;
+                        final String value;
+                        try {
+                            key = decodeKey(lastKey);
+                            value = readValue(cursor, 1);
+                        } catch (Throwable e) {
+                            CoreLog.e(e, "forEach skip invalid row");
+                            continue;
+                        } finally {
+                            Progress.append(progress, 1);
+                        }
+                        if (key != null) {
+                            visitor.onRow(key, value, lastUpdate);
+                            visited++;
+                        }
+                    }
+                } finally {
+                    IOUtil.closeQuietly(cursor);
+                }
+            } while (pageRows >= FOR_EACH_PAGE_SIZE);
+            return visited;
+        } catch (AbortException e) {
+            CoreLog.v("forEach abort after %s rows", visited);
+            return visited;
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    /**
+     * 将全部未过期的数据以二进制格式流式写入 out, 数据保持加密状态不解密, 内存占用与数据量无关.
+     * 导出的数据只能由使用相同密钥(同一个应用)的 {@linkplain #importFrom(InputStream, AbortSignal, Progress)} 导入.
+     * 不会关闭 out.
+     * <pre>
+     * [magic 4 bytes][version 4 bytes][estimated rows 8 bytes]
+     * ([type 1 byte][key][update 8 bytes][expire 8 bytes][bucket][value])... [end 1 byte]
+     * key, bucket 与 value 均为 [length 4 bytes][bytes], bucket 为 null 时长度为 -1
+     * </pre>
+     *
+     * @return 导出的数据条数, 如果出错或者被中止返回 -1 (此时输出不完整)
+     */
+    public int exportTo(@NonNull OutputStream out, @Nullable AbortSignal abortSignal, @Nullable Progress progress) {
+        int exported = 0;
+        try {
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(out));
+            SQLiteDatabase db = getReadableDatabase();
+            final long total = queryCount();
+            if (progress != null) {
+                progress.set(total, 0L);
+            }
+            output.writeInt(EXPORT_MAGIC);
+            output.writeInt(EXPORT_VERSION);
+            output.writeLong(total);
+
+            String lastKey = null;
+            int pageRows;
+            do {
+                AbortUtil.throwIfAbort(abortSignal);
+
+                pageRows = 0;
+                Cursor cursor = null;
+                try {
+                    if (lastKey == null) {
+                        cursor = db.rawQuery(sql(SQL_EXPORT_FIRST_PAGE), null);
+                    } else {
+                        cursor = db.rawQuery(sql(SQL_EXPORT_NEXT_PAGE), new String[]{lastKey});
+                    }
+                    final long now = System.currentTimeMillis();
+                    while (cursor.moveToNext()) {
+                        pageRows++;
+                        lastKey = cursor.getString(0);
+                        Progress.append(progress, 1);
+                        final long expire = cursor.getLong(3);
+                        final int valueType = cursor.getType(1);
+                        if (isExpired(expire, now) || valueType == Cursor.FIELD_TYPE_NULL) {
+                            continue;
+                        }
+
+                        final boolean blob = valueType == Cursor.FIELD_TYPE_BLOB;
+                        output.writeByte(blob ? EXPORT_ROW_BLOB : EXPORT_ROW_TEXT);
+                        writeBytes(output, lastKey.getBytes(Charsets.UTF8));
+                        output.writeLong(cursor.getLong(2));
+                        output.writeLong(expire);
+                        writeBytes(output, cursor.isNull(4) ? null : cursor.getString(4).getBytes(Charsets.UTF8));
+                        writeBytes(output, blob ? cursor.getBlob(1) : cursor.getString(1).getBytes(Charsets.UTF8));
+                        exported++;
+                    }
+                } finally {
+                    IOUtil.closeQuietly(cursor);
+                }
+            } while (pageRows >= FOR_EACH_PAGE_SIZE);
+
+            output.writeByte(EXPORT_ROW_END);
+            output.flush();
+            return exported;
+        } catch (AbortException e) {
+            CoreLog.v("export abort after %s rows", exported);
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    /**
+     * 流式读取 {@linkplain #exportTo(OutputStream, AbortSignal, Progress)} 导出的数据, 每 200 条在一个事务中写入,
+     * 已存在的 key 被覆盖. 数据保持加密状态直接写入, 不会关闭 in.
+     *
+     * @return 导入的数据条数, 被中止时返回已经提交的条数, 如果出错返回 -1 (已经提交的数据不会回滚)
+     */
+    public int importFrom(@NonNull InputStream in, @Nullable AbortSignal abortSignal, @Nullable Progress progress) {
+        int imported = 0;
+        try {
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(in));
+            if (input.readInt() != EXPORT_MAGIC) {
+                throw new IllegalArgumentException("unknown export format");
+            }
+            final int version = input.readInt();
+            if (version != EXPORT_VERSION) {
+                throw new IllegalArgumentException("not support export version " + version);
+            }
+            final long total = input.readLong();
+            if (progress != null) {
+                progress.set(total, 0L);
+            }
+
+            final SQLiteDatabase db = getWritableDatabase();
+            final SQLiteStatement statement = db.compileStatement(sql(SQL_REPLACE));
+            try {
+                boolean end = false;
+                while (!end) {
+                    AbortUtil.throwIfAbort(abortSignal);
+
+                    int batchRows = 0;
+                    long batchBytes = 0L;
+                    db.beginTransaction();
+                    try {
+                        while (batchRows < IMPORT_BATCH_SIZE) {
+                            final byte type = input.readByte();
+                            if (type == EXPORT_ROW_END) {
+                                end = true;
+                                break;
+                            }
+                            if (type != EXPORT_ROW_BLOB && type != EXPORT_ROW_TEXT) {
+                                throw new IllegalArgumentException("unknown row type " + type);
+                            }
+
+                            final byte[] keyBytes = readBytes(input);
+                            final long update = input.readLong();
+                            final long expire = input.readLong();
+                            final byte[] bucketBytes = readBytes(input);
+                            final byte[] value = readBytes(input);
+                            if (keyBytes == null || value == null) {
+                                throw new IllegalArgumentException("invalid row");
+                            }
+
+                            final String key = new String(keyBytes, Charsets.UTF8);
+                            String bucket = bucketBytes == null ? null : new String(bucketBytes, Charsets.UTF8);
+                            if (bucket == null && mBucketIndexEnabled) {
+                                // 导出端没有维护 bucket 索引
+                                final String originKey = decodeKey(key);
+                                if (originKey != null) {
+                                    bucket = encodeBucket(originKey);
+                                }
+                            }
+
+                            statement.bindString(1, key);
+                            if (type == EXPORT_ROW_BLOB) {
+                                statement.bindBlob(2, value);
+                            } else {
+                                statement.bindString(2, new String(value, Charsets.UTF8));
+                            }
+                            statement.bindLong(3, update);
+                            if (bucket == null) {
+                                statement.bindNull(4);
+                            } else {
+                                statement.bindString(4, bucket);
+                            }
+                            statement.bindLong(5, expire);
+                            statement.bindLong(6, key.length() + value.length);
+                            statement.executeInsert();
+                            statement.clearBindings();
+                            if (mBloomFilterEnabled) {
+                                final String originKey = decodeKey(key);
+                                if (originKey != null) {
+                                    addToBloomFilter(originKey);
+                                }
+                            }
+
+                            batchRows++;
+                            batchBytes += key.length() + value.length;
+                        }
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                    imported += batchRows;
+                    Progress.append(progress, batchRows);
+                    onBytesWritten(batchBytes);
+                }
+            } finally {
+                statement.close();
+            }
+            return imported;
+        } catch (AbortException e) {
+            CoreLog.v("import abort after %s rows", imported);
+            return imported;
+        } catch (Throwable e) {
+            e.printStackTrace();
+        } finally {
+            if (imported > 0) {
+                mRowCount.set(-1);
+                invalidateCache(null);
+                notifyChange();
+            }
+        }
+        return -1;
+    }
+
+    private static void writeBytes(@NonNull DataOutputStream output, @Nullable byte[] bytes) throws IOException {
+        if (bytes == null) {
+            output.writeInt(-1);
+            return;
+        }
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    @Nullable
+    private static byte[] readBytes(@NonNull DataInputStream input) throws IOException {
+        final int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * 查询 bucket 等于 prefix 的全部数据, prefix 需要以 {@linkplain #BUCKET_SPLIT} 结尾.
+     * 如 prefix 为 user:123: 时返回 user:123:name, user:123:avatar 等, 不包含 user:123:a:b 等更深层级的 key.
+     * <p>
+     * 开启 bucket 索引 ({@linkplain Config#setBucketIndexEnabled(boolean)}) 并且索引补全之后, 查询耗时只与结果数量相关,
+     * 否则遍历并解密全部 key.
+     *
+     * @return 如果出错返回 null
+     */
+    @Override
+    @Nullable
+    public Map<String, String> getByPrefix(@Nullable String prefix) {
+        if (TextUtils.isEmpty(prefix) || !prefix.endsWith(BUCKET_SPLIT)) {
+            return new HashMap<>();
+        }
+
+        if (!mBucketIndexEnabled || !mBucketIndexReady) {
+            final Map<String, String> data = new HashMap<>();
+            final int count = forEach((key, value, update) -> {
+                if (prefix.equals(getBucket(key))) {
+                    data.put(key, value);
+                }
+            }, null, null);
+            return count < 0 ? null : data;
+        }
+
+        Cursor cursor = null;
+        try {
+            Map<String, String> data = new HashMap<>();
+            SQLiteDatabase db = getReadableDatabase();
+            cursor = db.rawQuery(sql(SQL_SELECT_BY_BUCKET), new String[]{encodeKey(prefix)});
+            final long now = System.currentTimeMillis();
+            while (cursor.moveToNext()) {
+                if (isExpired(cursor.getLong(2), now)) {
+                    continue;
+                }
+                String key = decodeKey(cursor.getString(0));
+                String value = readValue(cursor, 1);
+                data.put(key, value);
+            }
+            return data;
+        } catch (Throwable e) {
+            e.printStackTrace();
+        } finally {
+            IOUtil.closeQuietly(cursor);
+        }
+        return null;
+    }
+
+    @Override
+    public void set(@Nullable String key, @Nullable String value) {
+        set(key, value, 0L);
+    }
+
+    /**
+     * 写入数据并指定有效期, 过期后读取不到该数据, 并在读取时或者 {@linkplain #sweepExpired()} 时被删除.
+     *
+     * @param ttlMillis 有效期(毫秒), 小于等于 0 时表示永不过期
+     */
+    @Override
+    public void set(@Nullable String key, @Nullable String value, long ttlMillis) {
+        if (TextUtils.isEmpty(key)) {
+            return;
+        }
+        setValue(key, value, ttlMillis);
+    }
+
+    /**
+     * value 为空时删除 key, 返回是否写入成功
+     */
+    private boolean setValue(@NonNull String key, @Nullable String value, long ttlMillis) {
+        if (TextUtils.isEmpty(value)) {
+            return removeKey(key);
+        }
+
+        try {
+            return setEncoded(key, encodeValue(value), ttlMillis);
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * 以紧凑的二进制格式写入, 读取时不需要经过字符串转换
+     *
+     * @see #getInt(String, int)
+     */
+    public void setInt(@Nullable String key, int value) {
+        if (TextUtils.isEmpty(key)) {
+            return;
+        }
+        try {
+            setEncoded(key, ValueCodec.encodeInt(value), 0L);
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 以紧凑的二进制格式写入, 读取时不需要经过字符串转换
+     *
+     * @see #getLong(String, long)
+     */
+    public void setLong(@Nullable String key, long value) {
+        if (TextUtils.isEmpty(key)) {
+            return;
+        }
+        try {
+            setEncoded(key, ValueCodec.encodeLong(value), 0L);
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 以紧凑的二进制格式写入, 读取时不需要经过字符串转换
+     *
+     * @see #getBoolean(String, boolean)
+     */
+    public void setBoolean(@Nullable String key, boolean value) {
+        if (TextUtils.isEmpty(key)) {
+            return;
+        }
+        try {
+            setEncoded(key, ValueCodec.encodeBoolean(value), 0L);
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 以紧凑的二进制格式写入, 读取时不需要经过字符串转换
+     *
+     * @see #getDouble(String, double)
+     */
+    public void setDouble(@Nullable String key, double value) {
+        if (TextUtils.isEmpty(key)) {
+            return;
+        }
+        try {
+            setEncoded(key, ValueCodec.encodeDouble(value), 0L);
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 写入二进制数据, value 为 null 或者长度为 0 时删除对应的 key
+     *
+     * @see #getBytes(String)
+     */
+    public void setBytes(@Nullable String key, @Nullable byte[] value) {
+        if (TextUtils.isEmpty(key)) {
+            return;
+        }
+        if (value == null || value.length == 0) {
+            remove(key);
+            return;
+        }
+        try {
+            setEncoded(key, ValueCodec.encodeBytes(value), 0L);
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param encodedValue {@linkplain ValueCodec} 格式的 value
+     * @return 是否写入成功
+     */
+    private boolean setEncoded(@NonNull String key, @NonNull byte[] encodedValue, long ttlMillis) {
+        final String originKey = key;
+        SQLiteStatement statement = null;
+        boolean success = false;
+        try {
+            key = encodeKey(key);
+
+            final String bucket = mBucketIndexEnabled ? encodeBucket(originKey) : null;
+
+            final long now = System.currentTimeMillis();
+            final long expire = ttlMillis > 0 ? now + ttlMillis : 0L;
+            final long size = key.length() + encodedValue.length;
+
+            // 先尝试插入, 已存在时再更新. 是否新增由 insert or ignore 这一条语句的结果决定,
+            // 多个线程同时第一次写入同一个 key 时只有一个计为新增, 数据条数不会偏差.
+            // 两条语句之间数据被删除时更新不到任何数据, 重新插入一次
+            for (int attempt = 0; attempt < 2; attempt++) {
+                statement = mInsertIgnoreStatements.acquire();
+                bindRow(statement, key, encodedValue, now, bucket, expire, size);
+                final boolean inserted = statement.executeInsert() != -1;
+                mInsertIgnoreStatements.release(statement);
+                statement = null;
+                if (inserted) {
+                    onRowInserted();
+                    break;
+                }
+
+                statement = mUpdateRowStatements.acquire();
+                bindRow(statement, key, encodedValue, now, bucket, expire, size);
+                final boolean updated = statement.executeUpdateDelete() > 0;
+                mUpdateRowStatements.release(statement);
+                statement = null;
+                if (updated) {
+                    break;
+                }
+            }
+
+            onBytesWritten(size);
+            success = true;
+        } catch (Throwable e) {
+            e.printStackTrace();
+        } finally {
+            if (statement != null) {
+                statement.close();
+            }
+            addToBloomFilter(originKey);
+            invalidateCache(originKey);
+            notifyChange();
+        }
+        return success;
+    }
+
+    /**
+     * 如果 key 不存在(或者已过期)则写入 value, 插入由一条 insert or ignore 语句完成, 多个线程或者进程同时写入时只有一个生效.
+     *
+     * @return 写入成功返回 true, key 已存在或者写入失败返回 false
+     */
+    @Override
+    public boolean putIfAbsent(@Nullable String key, @Nullable String value) {
+        if (TextUtils.isEmpty(key) || TextUtils.isEmpty(value)) {
+            return false;
+        }
+
+        final String originKey = key;
+        SQLiteStatement statement = null;
+        boolean inserted = false;
+        try {
+            key = encodeKey(key);
+            final byte[] encodedValue = encodeValue(value);
+            final String bucket = mBucketIndexEnabled ? encodeBucket(originKey) : null;
+            final long now = System.currentTimeMillis();
+            final long size = key.length() + encodedValue.length;
+
+            // 已过期的数据视为不存在
+            final int count = getWritableDatabase()
+                    .delete(mTableName, SQL_WHERE_KEY_EXPIRED, new String[]{key, String.valueOf(now)});
+            onRowsDeleted(count);
+
+            statement = mInsertIgnoreStatements.acquire();
+            bindRow(statement, key, encodedValue, now, bucket, 0L, size);
+            inserted = statement.executeInsert() != -1;
+            mInsertIgnoreStatements.release(statement);
+            statement = null;
+
+            if (inserted) {
+                onRowInserted();
+                onBytesWritten(size);
+            }
+        } catch (Throwable e) {
+            e.printStackTrace();
+        } finally {
+            if (statement != null) {
+                statement.close();
+            }
+            if (inserted) {
+                addToBloomFilter(originKey);
+                invalidateCache(originKey);
+                notifyChange();
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * 在一个事务中读取当前值(跳过缓存), 与 expect 相等时写入 update. 事务持有数据库的写锁, 对其它线程与进程都是原子的.
+     *
+     * @param expect 为空时表示期望 key 不存在
+     * @param update 为空时删除 key
+     * @return 当前值与 expect 相等并且已写入时返回 true
+     */
+    @Override
+    public boolean compareAndSet(@Nullable String key, @Nullable String expect, @Nullable String update) {
+        if (TextUtils.isEmpty(key)) {
+            return false;
+        }
+
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            beginTransaction(db);
+            try {
+                final Object current = queryObject(key);
+                final String currentValue = current != null ? ValueCodec.toString(current) : null;
+                final boolean expected = TextUtils.isEmpty(expect)
+                        ? TextUtils.isEmpty(currentValue)
+                        : expect.equals(currentValue);
+                if (expected && !setValue(key, update, 0L)) {
+                    // 写入失败, 回滚事务
+                    return false;
+                }
+                db.setTransactionSuccessful();
+                return expected;
+            } finally {
+                endTransaction(db);
+            }
+        } catch (Throwable e) {
+            e.printStackTrace();
+            invalidateCache(key);
+        }
+        return false;
+    }
+
+    /**
+     * 在同一个事务中写入多条数据, value 为空时删除对应的 key.
+     *
+     * @see #runInTransaction(Runnable)
+     */
+    @Override
+    public void setAll(@Nullable Map<String, String> data) {
+        if (data == null || data.isEmpty()) {
+            return;
+        }
+
+        runInTransaction(() -> {
+            for (Map.Entry<String, String> entry : data.entrySet()) {
+                set(entry.getKey(), entry.getValue());
+            }
+        });
+    }
+
+    /**
+     * 在同一个事务中删除多个 key.
+     *
+     * @see #runInTransaction(Runnable)
+     */
+    @Override
+    public void removeAll(@Nullable Collection<String> keys) {
+        if (keys == null || keys.isEmpty()) {
+            return;
+        }
+
+        runInTransaction(() -> {
+            for (String key : keys) {
+                remove(key);
+            }
+        });
+    }
+
+    /**
+     * 在同一个事务中执行 runnable, 在 runnable 中对当前数据库的读写都处于该事务中, 只在结束时提交一次.
+     * 如果 runnable 抛出异常, 事务回滚. 单条读写的失败与 {@linkplain #set(String, String)} 一致, 仅输出日志, 不影响事务提交.
+     *
+     * @return 事务成功提交返回 true, 否则返回 false.
+     */
+    @Override
+    public boolean runInTransaction(@NonNull Runnable runnable) {
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            beginTransaction(db);
+            try {
+                runnable.run();
+                db.setTransactionSuccessful();
+            } finally {
+                endTransaction(db);
+            }
+            notifyChange();
+            return true;
+        } catch (Throwable e) {
+            e.printStackTrace();
+            // 事务回滚后, 事务内读取并缓存的值可能已经失效
+            invalidateCache(null);
+        }
+        return false;
+    }
+
+    /**
+     * 开始事务, 与 {@linkplain #endTransaction(SQLiteDatabase)} 成对使用, 记录事务中写入的 key
+     */
+    private void beginTransaction(@NonNull SQLiteDatabase db) {
+        db.beginTransaction();
+        TransactionKeys transactionKeys = mTransactionKeys.get();
+        if (transactionKeys == null) {
+            transactionKeys = new TransactionKeys();
+            mTransactionKeys.set(transactionKeys);
+        }
+        transactionKeys.depth++;
+    }
+
+    /**
+     * 结束事务. 最外层的事务结束(提交或者回滚)之后, 再次清除事务中写入的 key, 丢弃事务期间从其它连接读取到的旧值.
+     */
+    private void endTransaction(@NonNull SQLiteDatabase db) {
+        try {
+            db.endTransaction();
+        } finally {
+            final TransactionKeys transactionKeys = mTransactionKeys.get();
+            if (transactionKeys != null && --transactionKeys.depth <= 0) {
+                mTransactionKeys.remove();
+                invalidateKeys(transactionKeys.keys);
+            }
+        }
+    }
+
+    /**
+     * 更新 key 的访问时间, 用于按时间清理时保留最近访问的数据.
+     * 开启 {@linkplain Config#setDeferredTouchEnabled(boolean)} 时只记录在内存中, 之后批量写入.
+     */
+    public void touch(@Nullable String key) {
+        if (TextUtils.isEmpty(key)) {
+            return;
+        }
+
+        if (mDeferredTouchEnabled) {
+            mPendingTouches.put(key, System.currentTimeMillis());
+            scheduleFlushTouches(mPendingTouches.size() >= TOUCH_FLUSH_THRESHOLD);
+            return;
+        }
+
+        SQLiteStatement statement = null;
+        try {
+            key = encodeKey(key);
+
+            statement = mTouchStatements.acquire();
+            statement.bindLong(1, System.currentTimeMillis());
+            statement.bindString(2, key);
+            statement.executeUpdateDelete();
+        } catch (Throwable e) {
+            e.printStackTrace();
+        } finally {
+            mTouchStatements.release(statement);
+        }
+    }
+
+    private void scheduleFlushTouches(boolean immediately) {
+        if (!mTouchFlushScheduled.compareAndSet(false, true)) {
+            if (!immediately) {
+                return;
+            }
+            // 已经安排了延迟写入, 数量达到阈值时提前写入, 之后的延迟写入没有数据时直接结束
+        }
+        final Runnable flush = () -> {
+            mTouchFlushScheduled.set(false);
+            flushTouches();
+        };
+        if (immediately) {
+            Threads.postBackground(flush);
+        } else {
+            Threads.postUi(() -> Threads.postBackground(flush), TOUCH_FLUSH_DELAY_MS);
+        }
+    }
+
+    /**
+     * 在一个事务中写入全部延迟的访问记录. 按时间清理之前会自动调用, 保证清理的顺序与访问顺序一致.
+     * <p>
+     * 取出记录时不持有锁, 多个线程同时写入时各自写入取到的部分. 写入语句只会增大访问时间, 与写入的先后顺序无关.
+     */
+    public void flushTouches() {
+        if (mPendingTouches.isEmpty()) {
+            return;
+        }
+
+        final Map<String, Long> touches = new HashMap<>();
+        for (String key : mPendingTouches.keySet()) {
+            final Long time = mPendingTouches.remove(key);
+            if (time != null) {
+                touches.put(key, time);
+            }
+        }
+        if (touches.isEmpty()) {
+            return;
+        }
+
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            SQLiteStatement statement = db.compileStatement(sql(SQL_TOUCH_DEFERRED));
+            db.beginTransaction();
+            try {
+                for (Map.Entry<String, Long> entry : touches.entrySet()) {
+                    statement.bindLong(1, entry.getValue());
+                    statement.bindString(2, encodeKey(entry.getKey()));
+                    statement.executeUpdateDelete();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                statement.close();
+            }
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 当前线程不在事务中时写入延迟的访问记录. 在事务中写入时访问记录会随外层事务一起回滚, 此时留到之后再写入.
+     */
+    private void flushTouchesIfNotInTransaction(@NonNull SQLiteDatabase db) {
+        if (!db.inTransaction()) {
+            flushTouches();
+        }
+    }
+
+    /**
+     * 删除多余的旧数据(按时间倒序)，保留指定条数的数据. 返回删除的数据的条数，如果不满足删除条件返回 -1.
+     * <p>
+     * 一次删除全部多余的数据, 数据量较大时耗时较长. 通过 {@linkplain Config#setMaxRows(int)} 可以在写入时增量删除.
+     */
+    @Override
+    public int trim(int maxRows) {
+        if (maxRows < 1) {
+            return -1;
+        }
+
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            flushTouchesIfNotInTransaction(db);
+
+            Cursor cursor = null;
+            long lastUpdate = 0L;
+            try {
+                cursor =
+                        db.query(
+                                mTableName,
+                                new String[]{COLUMN_UPDATE},
+                                null,
+                                null,
+                                null,
+                                null,
+                                COLUMN_UPDATE + " desc",
+                                (maxRows - 1) + ",1");
+                if (cursor.moveToFirst()) {
+                    lastUpdate = cursor.getLong(0);
+                }
+            } catch (Throwable e) {
+                e.printStackTrace();
+            } finally {
+                IOUtil.closeQuietly(cursor);
+            }
+
+            if (lastUpdate <= 0) {
+                return -1;
+            }
+
+            final int count = db.delete(
+                    mTableName, COLUMN_UPDATE + "<?", new String[]{String.valueOf(lastUpdate)});
+            if (count > 0) {
+                onRowsDeleted(count);
+                invalidateCache(null);
+                notifyChange();
+            }
+            return count;
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    /**
+     * 按更新时间从旧到新删除数据, 直到数据总大小(key 与加密后 value 的字节数)不超过 maxBytes.
+     * 返回删除的数据的条数, 如果不满足删除条件返回 -1.
+     */
+    @Override
+    public int trimBytes(long maxBytes) {
+        if (maxBytes < 1) {
+            return -1;
+        }
+
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            flushTouchesIfNotInTransaction(db);
+
+            long totalBytes = 0L;
+            Cursor cursor = null;
+            try {
+                cursor = db.rawQuery(sql(SQL_SUM_SIZE), null);
+                if (cursor.moveToFirst()) {
+                    totalBytes = cursor.getLong(0);
+                }
+            } finally {
+                IOUtil.closeQuietly(cursor);
+            }
+
+            final long excessBytes = totalBytes - maxBytes;
+            if (excessBytes <= 0) {
+                return -1;
+            }
+
+            // 沿 c_update 索引从最旧的数据开始累计, 找到需要删除的最后一条数据的更新时间
+            long lastUpdate = -1L;
+            long freedBytes = 0L;
+            try {
+                cursor = db.rawQuery(sql(SQL_SELECT_SIZE_BY_UPDATE), null);
+                while (freedBytes < excessBytes && cursor.moveToNext()) {
+                    lastUpdate = cursor.getLong(0);
+                    freedBytes += cursor.getLong(1);
+                }
+            } finally {
+                IOUtil.closeQuietly(cursor);
+            }
+
+            if (lastUpdate < 0) {
+                return -1;
+            }
+
+            final int count = db.delete(
+                    mTableName, COLUMN_UPDATE + "<=?", new String[]{String.valueOf(lastUpdate)});
+            if (count > 0) {
+                onRowsDeleted(count);
+                invalidateCache(null);
+                notifyChange();
+            }
+            return count;
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    private void bindRow(@NonNull SQLiteStatement statement,
+                         @NonNull String key,
+                         @NonNull byte[] value,
+                         long update,
+                         @Nullable String bucket,
+                         long expire,
+                         long size) {
+        statement.bindString(1, key);
+        statement.bindBlob(2, value);
+        statement.bindLong(3, update);
+        if (bucket == null) {
+            statement.bindNull(4);
+        } else {
+            statement.bindString(4, bucket);
+        }
+        statement.bindLong(5, expire);
+        statement.bindLong(6, size);
+    }
+
+    private void onRowsDeleted(int count) {
+        if (count <= 0) {
+            return;
+        }
+        if (mBloomFilterEnabled) {
+            final BloomFilter bloomFilter = mBloomFilter;
+            if (bloomFilter != null && mBloomFilterRemovals.addAndGet(count) > bloomFilter.getCapacity() / 4) {
+                scheduleRebuildBloomFilter();
+            }
+        }
+        int rowCount;
+        do {
+            rowCount = mRowCount.get();
+            if (rowCount < 0) {
+                return;
+            }
+        } while (!mRowCount.compareAndSet(rowCount, Math.max(0, rowCount - count)));
+    }
+
+    /**
+     * 新增一条数据后调用. 设置了条数上限时, 如果超出上限则删除一小批最旧的数据, 使删除的开销平摊到每次写入中.
+     */
+    private void onRowInserted() {
+        if (mBloomFilterEnabled) {
+            final BloomFilter bloomFilter = mBloomFilter;
+            if (bloomFilter != null && mBloomFilterKeys.incrementAndGet() > bloomFilter.getCapacity()) {
+                scheduleRebuildBloomFilter();
+            }
+        }
+
+        if (mMaxRows <= 0) {
+            // 不限制条数时不需要统计
+            return;
+        }
+
+        int rowCount = mRowCount.incrementAndGet();
+        if (rowCount <= 0) {
+            rowCount = (int) queryCount();
+            mRowCount.set(rowCount);
+        }
+
+        final int excess = rowCount - mMaxRows;
+        if (excess > 0) {
+            evictOldest(Math.min(excess, EVICT_BATCH_SIZE));
+        }
+    }
+
+    private long queryCount() {
+        SQLiteStatement statement = getWritableDatabase().compileStatement(sql(SQL_COUNT));
+        try {
+            return statement.simpleQueryForLong();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * 删除最旧的 rows 条数据, 同时清除这些数据的缓存
+     */
+    private void evictOldest(int rows) {
+        final SQLiteDatabase db = getWritableDatabase();
+        flushTouchesIfNotInTransaction(db);
+        final List<String> keys = new ArrayList<>(rows);
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(sql(SQL_SELECT_OLDEST_KEYS), new String[]{String.valueOf(rows)});
+            while (cursor.moveToNext()) {
+                keys.add(cursor.getString(0));
+            }
+        } finally {
+            IOUtil.closeQuietly(cursor);
+        }
+
+        final OnEvictListener listener = mOnEvictListener;
+        final Set<String> evictedKeys = new HashSet<>();
+        boolean unknownKeys = false;
+        for (String key : keys) {
+            final int count = db.delete(mTableName, COLUMN_KEY + "=?", new String[]{key});
+            onRowsDeleted(count);
+            if (count > 0 && (isCacheEnabled() || listener != null)) {
+                try {
+                    final String originKey = decodeKey(key);
+                    if (originKey != null) {
+                        evictedKeys.add(originKey);
+                    }
+                } catch (Throwable e) {
+                    CoreLog.e(e, "fail to decode evicted key");
+                    unknownKeys = true;
+                }
+            }
+        }
+        if (isCacheEnabled()) {
+            if (unknownKeys) {
+                invalidateCache(null);
+            } else {
+                for (String key : evictedKeys) {
+                    invalidateCache(key);
+                }
+            }
+        }
+        notifyChange();
+        if (listener != null && (unknownKeys || !evictedKeys.isEmpty())) {
+            listener.onEvict(unknownKeys ? null : evictedKeys);
+        }
+    }
+
+    /**
+     * 设置了大小上限时, 写入的数据累计超过上限的 1/8 后在后台按大小清理一次
+     */
+    private void onBytesWritten(long size) {
+        final long maxBytes = mMaxBytes;
+        if (maxBytes <= 0) {
+            return;
+        }
+        if (mBytesSinceTrim.addAndGet(size) < maxBytes / 8) {
+            return;
+        }
+        if (!mTrimBytesScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        mBytesSinceTrim.set(0L);
+        Threads.postBackground(() -> {
+            try {
+                if (trimBytes(maxBytes) > 0) {
+                    final OnEvictListener listener = mOnEvictListener;
+                    if (listener != null) {
+                        listener.onEvict(null);
+                    }
+                }
+            } finally {
+                mTrimBytesScheduled.set(false);
+            }
+        });
+    }
+
+    /**
+     * 分批删除已经过期的数据, 每批删除少量数据以避免长时间占用数据库. 返回删除的数据的条数, 如果出错返回 -1.
+     */
+    @Override
+    public int sweepExpired() {
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            final long now = System.currentTimeMillis();
+            int total = 0;
+            int count;
+            do {
+                SQLiteStatement statement = db.compileStatement(sql(SQL_DELETE_EXPIRED));
+                try {
+                    statement.bindLong(1, now);
+                    statement.bindLong(2, SWEEP_BATCH_SIZE);
+                    count = statement.executeUpdateDelete();
+                } finally {
+                    statement.close();
+                }
+                total += count;
+                onRowsDeleted(count);
+            } while (count >= SWEEP_BATCH_SIZE);
+            // 过期的数据已经不可读, 删除后不需要清除缓存
+            return total;
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    /**
+     * 清空数据，返回删除数据的条数, 如果出错，返回 -1.
+     */
+    @Override
+    public int clear() {
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            final int count = db.delete(mTableName, null, null);
+            mRowCount.set(0);
+            if (mBloomFilterEnabled) {
+                scheduleRebuildBloomFilter();
+            }
+            return count;
+        } catch (Throwable e) {
+            mRowCount.set(-1);
+            e.printStackTrace();
+        } finally {
+            invalidateCache(null);
+            notifyChange();
+        }
+        return -1;
+    }
+
+    @Override
+    public void remove(@Nullable String key) {
+        if (TextUtils.isEmpty(key)) {
+            return;
+        }
+        removeKey(key);
+    }
+
+    /**
+     * 返回是否执行成功, key 不存在时同样视为成功
+     */
+    private boolean removeKey(@NonNull String key) {
+        final String originKey = key;
+        SQLiteStatement statement = null;
+        boolean success = false;
+        try {
+            key = encodeKey(key);
+
+            statement = mDeleteStatements.acquire();
+            statement.bindString(1, key);
+            onRowsDeleted(statement.executeUpdateDelete());
+            success = true;
+        } catch (Throwable e) {
+            e.printStackTrace();
+        } finally {
+            mDeleteStatements.release(statement);
+            invalidateCache(originKey);
+            notifyChange();
+        }
+        return success;
+    }
+
+    /**
+     * 多进程共享时, 通知其它进程数据已变更. 短时间内的多次通知合并为一次.
+     * 在事务中调用时其它进程可能暂时读不到变更, 事务提交后会再次通知.
+     */
+    private void notifyChange() {
+        final Uri changeUri = mChangeUri;
+        if (changeUri == null) {
+            return;
+        }
+        if (!mNotifyChangeScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        Threads.postBackground(() -> {
+            mNotifyChangeScheduled.set(false);
+            try {
+                // 传入自己的 observer, 当前进程不会收到自己发出的通知
+                ContextUtil.getContext().getContentResolver().notifyChange(changeUri, mChangeObserver);
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * 多进程共享时, 读取上次同步之后的变更记录, 只清除发生变更的 key 的缓存.
+     * 变更过多或者变更记录已被清理时清空全部缓存.
+     */
+    private void syncChanges() {
+        if (mChangeUri == null) {
+            return;
+        }
+
+        synchronized (mSyncChangesLock) {
+            Cursor cursor = null;
+            try {
+                SQLiteDatabase db = getReadableDatabase();
+                long minSeq = 0L;
+                long maxSeq = 0L;
+                cursor = db.rawQuery(SQL_CHANGE_RANGE, null);
+                if (cursor.moveToFirst()) {
+                    minSeq = cursor.getLong(0);
+                    maxSeq = cursor.getLong(1);
+                }
+                IOUtil.closeQuietly(cursor);
+                cursor = null;
+
+                final long lastSeq = mChangeSeq;
+                if (maxSeq <= lastSeq) {
+                    return;
+                }
+
+                // 其它进程可能新增或者删除了数据
+                mRowCount.set(-1);
+                final OnExternalChangeListener listener = mOnExternalChangeListener;
+                if (lastSeq < 0) {
+                    // 第一次同步, 缓存与监听都还没有开始
+                    invalidateCache(null);
+                } else if (lastSeq < minSeq - 1 || maxSeq - lastSeq > MAX_SYNC_CHANGES) {
+                    invalidateCache(null);
+                    if (listener != null) {
+                        listener.onExternalChange(null);
+                    }
+                } else if (isCacheEnabled() || listener != null) {
+                    final Set<String> keys = new HashSet<>();
+                    cursor = db.rawQuery(SQL_SELECT_CHANGES, new String[]{String.valueOf(lastSeq)});
+                    while (cursor.moveToNext()) {
+                        maxSeq = Math.max(maxSeq, cursor.getLong(0));
+                        if (mWriterTag.equals(cursor.getString(2))) {
+                            // 自己写入的数据已经更新了缓存并通知了监听
+                            continue;
+                        }
+                        final String key = decodeKey(cursor.getString(1));
+                        if (key != null && keys.add(key)) {
+                            invalidateCache(key);
+                        }
+                    }
+                    IOUtil.closeQuietly(cursor);
+                    cursor = null;
+                    if (listener != null && !keys.isEmpty()) {
+                        listener.onExternalChange(keys);
+                    }
+                }
+                mChangeSeq = maxSeq;
+
+                if (maxSeq - minSeq >= MAX_CHANGE_LOG_SIZE * 2) {
+                    getWritableDatabase().execSQL(
+                            SQL_PRUNE_CHANGES, new Object[]{maxSeq - MAX_CHANGE_LOG_SIZE});
+                }
+            } catch (Throwable e) {
+                e.printStackTrace();
+                invalidateCache(null);
+            } finally {
+                IOUtil.closeQuietly(cursor);
+            }
+        }
+    }
+
+    /**
+     * 为旧版本创建的变更记录表增加写入方标识列. 多个进程同时打开时可能已经被其它进程添加.
+     */
+    private static void addChangeWriterColumn(@NonNull SQLiteDatabase db) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("pragma table_info(t_change)", null);
+            final int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                if ("c_writer".equals(cursor.getString(nameIndex))) {
+                    return;
+                }
+            }
+            IOUtil.closeQuietly(cursor);
+            cursor = null;
+            db.execSQL(SQL_ADD_COLUMN_WRITER);
+        } catch (Throwable e) {
+            e.printStackTrace();
+        } finally {
+            IOUtil.closeQuietly(cursor);
+        }
+    }
+
+    /**
+     * 多进程共享时, 设置其它进程写入数据后的回调, 在后台线程中回调.
+     *
+     * @see Config#setMultiProcess(boolean)
+     */
+    public void setOnExternalChangeListener(@Nullable OnExternalChangeListener listener) {
+        mOnExternalChangeListener = listener;
+    }
+
+    @Override
+    public void setOnEvictListener(@Nullable OnEvictListener listener) {
+        mOnEvictListener = listener;
+    }
+
+    /**
+     * 多进程共享时, 当前进程已经同步到的变更序号, 否则返回 -1.
+     *
+     * @see Config#setMultiProcess(boolean)
+     */
+    public long getChangeSeq() {
+        return mChangeSeq;
+    }
+
+    /**
+     * 读操作使用的数据库. 开启 WAL 时, 多个读操作可以在后台线程中与写操作并发执行.
+     */
+    @NonNull
+    private SQLiteDatabase getReadableDatabase() {
+        awaitLegacyCopy();
+        if (!mTableReady) {
+            openWritableDatabase();
+        }
+        return mOpenHelper.getReadableDatabase();
+    }
+
+    /**
+     * 写操作使用的数据库. 共用数据库文件时, 第一次访问时创建或者升级当前使用的表.
+     * <p>
+     * 创建表时不持有任何 Java 锁, 只依赖数据库事务: 在事务中检查表的版本, 多个线程同时创建时由数据库的写锁依次执行,
+     * 之后的线程看到已经是当前版本时不再重复执行.
+     * 避免持有 Java 锁等待数据库连接, 而持有数据库连接(如事务中)的线程又在等待该 Java 锁.
+     */
+    @NonNull
+    private SQLiteDatabase getWritableDatabase() {
+        awaitLegacyCopy();
+        return openWritableDatabase();
+    }
+
+    /**
+     * 不等待之前独占使用的数据库文件复制完成
+     *
+     * @see #getWritableDatabase()
+     */
+    @NonNull
+    private SQLiteDatabase openWritableDatabase() {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        if (!mTableReady) {
+            db.beginTransaction();
+            try {
+                prepareSharedTable(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            mTableReady = true;
+        }
+        return db;
+    }
+
+    /**
+     * 共用数据库文件时, 按 t_meta 中记录的版本创建或者升级当前使用的表, 需要在事务中调用.
+     */
+    private void prepareSharedTable(@NonNull SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_TABLE_META);
+        int version = (int) queryLong(db, SQL_SELECT_TABLE_VERSION, mTableName);
+        if (version <= 0 && queryLong(db, SQL_COUNT_TABLE, mTableName) > 0) {
+            version = SHARED_TABLE_UNVERSIONED;
+        }
+        if (version == DB_VERSION) {
+            return;
+        }
+
+        if (version <= 0) {
+            db.execSQL(sql(SQL_CREATE_TABLE));
+            db.execSQL(sql(SQL_CREATE_INDEX));
+            db.execSQL(sql(SQL_CREATE_INDEX_BUCKET));
+            db.execSQL(sql(SQL_CREATE_INDEX_EXPIRE));
+        } else {
+            upgradeTable(db, version, DB_VERSION);
+        }
+        db.execSQL(SQL_REPLACE_TABLE_VERSION, new Object[]{mTableName, DB_VERSION});
+    }
+
+    /**
+     * 将当前使用的表从 oldVersion 升级到 newVersion
+     */
+    private void upgradeTable(@NonNull SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 1 || oldVersion > newVersion) {
+            throw new IllegalAccessError("not support upgrade from version " + oldVersion + " to " + newVersion);
+        }
+        // v1 -> v2 表结构不变 (TEXT 类型的列可以直接存储 BLOB), 数据在后台转换
+        if (oldVersion < 3) {
+            // 已有数据的 bucket 在后台补全
+            db.execSQL(sql(SQL_ADD_COLUMN_BUCKET));
+            db.execSQL(sql(SQL_CREATE_INDEX_BUCKET));
+        }
+        if (oldVersion < 4) {
+            db.execSQL(sql(SQL_ADD_COLUMN_EXPIRE));
+            db.execSQL(sql(SQL_CREATE_INDEX_EXPIRE));
+        }
+        if (oldVersion < 5) {
+            db.execSQL(sql(SQL_ADD_COLUMN_SIZE));
+            db.execSQL(sql(SQL_INIT_COLUMN_SIZE));
+        }
+    }
+
+    private static long queryLong(@NonNull SQLiteDatabase db, @NonNull String sql, @NonNull String arg) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(sql, new String[]{arg});
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0L;
+        } finally {
+            IOUtil.closeQuietly(cursor);
+        }
+    }
+
+    /**
+     * 等待之前独占使用的数据库文件复制完成. 当前线程持有共用数据库的事务时不等待(复制需要该连接), 之后复制的数据不覆盖已有的数据.
+     */
+    private void awaitLegacyCopy() {
+        final CountDownLatch latch = mLegacyCopyLatch;
+        if (latch == null) {
+            return;
+        }
+        if (mOpenHelper.getWritableDatabase().inTransaction()) {
+            CoreLog.e("%s: access in transaction before legacy rows copied", mTableName);
+            return;
+        }
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 在后台将之前独占使用的数据库文件中的数据复制到当前使用的表中, 原文件保持不变. 在 t_meta 中记录已复制, 只复制一次.
+     * 复制失败时回滚, 下次打开时重试.
+     */
+    private void copyLegacyDatabase() {
+        final CountDownLatch latch = mLegacyCopyLatch;
+        if (latch == null) {
+            return;
+        }
+
+        final String copiedMarker = mTableName + LEGACY_COPIED_SUFFIX;
+        int count = 0;
+        try {
+            final SQLiteDatabase db = openWritableDatabase();
+            db.beginTransaction();
+            try {
+                if (queryLong(db, SQL_SELECT_TABLE_VERSION, copiedMarker) <= 0) {
+                    count = copyLegacyRows(db);
+                    db.execSQL(SQL_REPLACE_TABLE_VERSION, new Object[]{copiedMarker, DB_VERSION});
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (Throwable e) {
+            e.printStackTrace();
+            CoreLog.e("fail to copy legacy rows from %s to %s", mLegacyDatabaseName, mTableName);
+            count = 0;
+        } finally {
+            mLegacyCopyLatch = null;
+            latch.countDown();
+        }
+
+        if (count > 0) {
+            CoreLog.v("copy %s legacy rows from %s to %s", count, mLegacyDatabaseName, mTableName);
+            mRowCount.set(-1);
+            invalidateCache(null);
+            notifyChange();
+        }
+    }
+
+    /**
+     * 复制之前独占使用的数据库文件中的数据, 已存在的 key 不覆盖, 返回复制的条数. 需要在事务中调用, 读取原文件失败时抛出异常.
+     * 原文件可能是任意旧版本的表结构, 缺少的 bucket 与旧格式的 value 在后台补全与转换.
+     */
+    private int copyLegacyRows(@NonNull SQLiteDatabase db) {
+        final File file = ContextUtil.getContext().getDatabasePath(mLegacyDatabaseName);
+        if (!file.exists()) {
+            return 0;
+        }
+
+        SQLiteDatabase legacy = null;
+        Cursor cursor = null;
+        SQLiteStatement statement = null;
+        int count = 0;
+        try {
+            legacy = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+            cursor = legacy.rawQuery(SQL_SELECT_LEGACY_ROWS, null);
+            final int keyIndex = cursor.getColumnIndexOrThrow(COLUMN_KEY);
+            final int valueIndex = cursor.getColumnIndexOrThrow(COLUMN_VALUE);
+            final int updateIndex = cursor.getColumnIndex(COLUMN_UPDATE);
+            final int bucketIndex = cursor.getColumnIndex(COLUMN_BUCKET);
+            final int expireIndex = cursor.getColumnIndex(COLUMN_EXPIRE);
+            statement = db.compileStatement(sql(SQL_INSERT_IGNORE));
+            while (cursor.moveToNext()) {
+                if (cursor.isNull(keyIndex) || cursor.isNull(valueIndex)) {
+                    continue;
+                }
+                statement.clearBindings();
+                statement.bindString(1, cursor.getString(keyIndex));
+                if (cursor.getType(valueIndex) == Cursor.FIELD_TYPE_BLOB) {
+                    statement.bindBlob(2, cursor.getBlob(valueIndex));
+                } else {
+                    // v1 的明文 value, 之后由 migrateLegacyValues 转换
+                    statement.bindString(2, cursor.getString(valueIndex));
+                }
+                statement.bindLong(3, updateIndex >= 0 ? cursor.getLong(updateIndex) : System.currentTimeMillis());
+                if (bucketIndex >= 0 && !cursor.isNull(bucketIndex)) {
+                    statement.bindString(4, cursor.getString(bucketIndex));
+                } else {
+                    statement.bindNull(4);
+                }
+                statement.bindLong(5, expireIndex >= 0 ? cursor.getLong(expireIndex) : 0L);
+                statement.bindLong(6, 0L);
+                if (statement.executeInsert() != -1) {
+                    count++;
+                }
+            }
+        } finally {
+            if (statement != null) {
+                statement.close();
+            }
+            IOUtil.closeQuietly(cursor);
+            if (legacy != null) {
+                legacy.close();
+            }
+        }
+
+        if (count > 0) {
+            db.execSQL(sql(SQL_INIT_COLUMN_SIZE));
+        }
+        return count;
+    }
+
+    /**
+     * 将 SQL 中的表名与索引名替换为当前使用的表与索引
+     */
+    @NonNull
+    private String sql(@NonNull String sql) {
+        if (TABLE_NAME.equals(mTableName)) {
+            return sql;
+        }
+        String result = mSqlCache.get(sql);
+        if (result == null) {
+            result = sql.replace(TABLE_NAME, mTableName)
+                    .replace(INDEX_PREFIX, INDEX_PREFIX + mTableName.substring(TABLE_NAME.length() + 1) + "_");
+            mSqlCache.put(sql, result);
+        }
+        return result;
+    }
+
+    /**
+     * 共用数据库文件时, 同名的数据库只打开一次. 表在各个 SimpleDB 第一次访问时创建, 不使用数据库的版本号,
+     * 每张表的版本记录在 t_meta 中.
+     */
+    @NonNull
+    private static SQLiteOpenHelper obtainSharedOpenHelper(@NonNull String dbName) {
+        synchronized (sSharedOpenHelpers) {
+            SQLiteOpenHelper openHelper = sSharedOpenHelpers.get(dbName);
+            if (openHelper == null) {
+                openHelper = new SQLiteOpenHelper(ContextUtil.getContext(), dbName, null, 1) {
+                    @Override
+                    public void onCreate(SQLiteDatabase db) {
+                    }
+
+                    @Override
+                    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+                    }
+                };
+                sSharedOpenHelpers.put(dbName, openHelper);
+            }
+            return openHelper;
+        }
+    }
+
+    /**
+     * 将名称转换为可以用于表名的标识, 只保留字母, 数字与下划线. 发生替换时附加原名称的 hash, 避免不同的名称冲突.
+     */
+    @NonNull
+    private static String toTableId(@NonNull String name) {
+        final StringBuilder builder = new StringBuilder(name.length());
+        boolean replaced = false;
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_') {
+                builder.append(c);
+            } else {
+                builder.append('_');
+                replaced = true;
+            }
+        }
+        if (replaced) {
+            builder.append('_').append(Integer.toHexString(name.hashCode()));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 内存缓存命中的次数, 未使用缓存时返回 0
+     */
+    public int getCacheHitCount() {
+        final LruCache<String, CacheEntry> cache = mCache;
+        return cache != null ? cache.hitCount() : 0;
+    }
+
+    /**
+     * 内存缓存未命中的次数, 未使用缓存时返回 0
+     */
+    public int getCacheMissCount() {
+        final LruCache<String, CacheEntry> cache = mCache;
+        return cache != null ? cache.missCount() : 0;
+    }
+
+    private long getCacheVersion() {
+        synchronized (mCacheLock) {
+            return mCacheVersion;
+        }
+    }
+
+    /**
+     * 将从数据库中读取到的值放入缓存. 如果读取期间发生过写操作, 则放弃本次结果.
+     */
+    private void putCache(@NonNull String key, @Nullable Object value, long expire, long cacheVersion) {
+        final LruCache<String, CacheEntry> cache = mCache;
+        if (cache == null) {
+            return;
+        }
+        synchronized (mCacheLock) {
+            if (cacheVersion == mCacheVersion) {
+                cache.put(key, new CacheEntry(value, expire));
+            }
+        }
+    }
+
+    /**
+     * 是否在内存中保存了数据(缓存或者快照), 数据被删除或者被其它进程修改时需要清除
+     */
+    private boolean isCacheEnabled() {
+        return mCache != null || mSnapshotEnabled;
+    }
+
+    /**
+     * 写操作完成后调用, key 为 null 时清空全部缓存
+     */
+    private void invalidateCache(@Nullable String key) {
+        final TransactionKeys transactionKeys = mTransactionKeys.get();
+        if (transactionKeys != null) {
+            transactionKeys.add(key);
+        }
+        invalidateSnapshot(key);
+        final LruCache<String, CacheEntry> cache = mCache;
+        if (cache == null) {
+            return;
+        }
+        synchronized (mCacheLock) {
+            mCacheVersion++;
+            if (key == null) {
+                cache.evictAll();
+            } else {
+                cache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 快照中的 key 标记为需要重新读取, 然后在后台重新读取. key 为 null 时丢弃整个快照, 在后台重新加载.
+     * 写操作可能处于尚未提交的事务中, 因此不直接将写入的值放入快照.
+     */
+    private void invalidateSnapshot(@Nullable String key) {
+        if (!mSnapshotEnabled) {
+            return;
+        }
+        synchronized (mSnapshotLock) {
+            mSnapshotVersion++;
+            final Map<String, CacheEntry> snapshot = mSnapshot;
+            if (snapshot != null) {
+                if (key == null) {
+                    mSnapshot = null;
+                } else {
+                    final Map<String, CacheEntry> copy = new HashMap<>(snapshot);
+                    copy.put(key, SNAPSHOT_STALE);
+                    mSnapshot = Collections.unmodifiableMap(copy);
+                }
+            }
+        }
+        scheduleRefreshSnapshot();
+    }
+
+    /**
+     * 一次清除多个 key 的缓存, keys 为 null 时清空全部缓存. 递增缓存版本, 丢弃之前开始的读取结果.
+     */
+    private void invalidateKeys(@Nullable Set<String> keys) {
+        if (keys == null) {
+            invalidateCache(null);
+            return;
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+        invalidateSnapshot(keys);
+        final LruCache<String, CacheEntry> cache = mCache;
+        if (cache == null) {
+            return;
+        }
+        synchronized (mCacheLock) {
+            mCacheVersion++;
+            for (String key : keys) {
+                cache.remove(key);
             }
-            return data;
-        } catch (Throwable e) {
-            e.printStackTrace();
-        } finally {
-            IOUtil.closeQuietly(cursor);
         }
-        return null;
     }
 
-    public void set(@Nullable String key, @Nullable String value) {
-        if (TextUtils.isEmpty(key)) {
+    /**
+     * 一次标记多个 key, 只复制一次快照. keys 为 null 时丢弃整个快照.
+     */
+    private void invalidateSnapshot(@Nullable Set<String> keys) {
+        if (keys == null) {
+            invalidateSnapshot((String) null);
             return;
         }
-        if (TextUtils.isEmpty(value)) {
-            remove(key);
+        if (!mSnapshotEnabled || keys.isEmpty()) {
             return;
         }
+        synchronized (mSnapshotLock) {
+            mSnapshotVersion++;
+            final Map<String, CacheEntry> snapshot = mSnapshot;
+            if (snapshot != null) {
+                final Map<String, CacheEntry> copy = new HashMap<>(snapshot);
+                for (String key : keys) {
+                    copy.put(key, SNAPSHOT_STALE);
+                }
+                mSnapshot = Collections.unmodifiableMap(copy);
+            }
+        }
+        scheduleRefreshSnapshot();
+    }
 
-        try {
-            key = encodeKey(key);
-            value = encodeValue(value);
-
-            SQLiteDatabase db = this.mOpenHelper.getWritableDatabase();
-            ContentValues contentValues = new ContentValues();
-            contentValues.put(COLUMN_KEY, key);
-            contentValues.put(COLUMN_VALUE, value);
-            contentValues.put(COLUMN_UPDATE, System.currentTimeMillis());
-            db.replace(TABLE_NAME, null, contentValues);
-        } catch (Throwable e) {
-            e.printStackTrace();
+    private void scheduleRefreshSnapshot() {
+        if (mSnapshotRefreshScheduled.compareAndSet(false, true)) {
+            Threads.postBackground(this::refreshSnapshot);
         }
     }
 
-    public void touch(@Nullable String key) {
-        if (TextUtils.isEmpty(key)) {
-            return;
+    /**
+     * 快照为 null 时加载全部数据, 否则只重新读取被标记的 key. 读取期间发生了写操作时放弃本次结果并重新读取.
+     */
+    private void refreshSnapshot() {
+        mSnapshotRefreshScheduled.set(false);
+
+        final long snapshotVersion;
+        final Map<String, CacheEntry> snapshot;
+        synchronized (mSnapshotLock) {
+            snapshotVersion = mSnapshotVersion;
+            snapshot = mSnapshot;
         }
 
+        final Map<String, CacheEntry> result;
+        Cursor cursor = null;
         try {
-            key = encodeKey(key);
-
-            SQLiteDatabase db = this.mOpenHelper.getWritableDatabase();
-            ContentValues contentValues = new ContentValues();
-            contentValues.put(COLUMN_UPDATE, System.currentTimeMillis());
-            db.update(TABLE_NAME, contentValues, COLUMN_KEY + "=?", new String[]{key});
+            final long now = System.currentTimeMillis();
+            SQLiteDatabase db = getReadableDatabase();
+            if (snapshot == null) {
+                result = new HashMap<>();
+                cursor = db.query(mTableName,
+                        new String[]{COLUMN_KEY, COLUMN_VALUE, COLUMN_EXPIRE},
+                        null,
+                        null,
+                        null,
+                        null,
+                        null);
+                while (cursor.moveToNext()) {
+                    final long expire = cursor.getLong(2);
+                    if (isExpired(expire, now)) {
+                        continue;
+                    }
+                    result.put(decodeKey(cursor.getString(0)), new CacheEntry(readObject(cursor, 1), expire));
+                }
+            } else {
+                result = new HashMap<>(snapshot);
+                for (Map.Entry<String, CacheEntry> entry : snapshot.entrySet()) {
+                    if (entry.getValue() != SNAPSHOT_STALE) {
+                        continue;
+                    }
+                    final String key = entry.getKey();
+                    result.remove(key);
+                    cursor = db.rawQuery(sql(SQL_SELECT_VALUE), new String[]{encodeKey(key)});
+                    if (cursor.moveToFirst()) {
+                        final long expire = cursor.getLong(1);
+                        if (!isExpired(expire, now)) {
+                            result.put(key, new CacheEntry(readObject(cursor, 0), expire));
+                        }
+                    }
+                    IOUtil.closeQuietly(cursor);
+                    cursor = null;
+                }
+            }
         } catch (Throwable e) {
             e.printStackTrace();
+            return;
+        } finally {
+            IOUtil.closeQuietly(cursor);
         }
+
+        synchronized (mSnapshotLock) {
+            if (snapshotVersion == mSnapshotVersion) {
+                mSnapshot = Collections.unmodifiableMap(result);
+                return;
+            }
+        }
+        scheduleRefreshSnapshot();
     }
 
     /**
-     * 删除多余的旧数据(按时间倒序)，保留指定条数的数据. 返回删除的数据的条数，如果不满足删除条件返回 -1.
+     * 写入 key 之后调用(写入失败时调用也不影响正确性). 先写入数据库再加入布隆过滤器, 与重建过程中的扫描配合保证不会漏掉 key.
      */
-    public int trim(int maxRows) {
-        if (maxRows < 1) {
-            return -1;
+    private void addToBloomFilter(@NonNull String key) {
+        if (!mBloomFilterEnabled) {
+            return;
         }
+        // 先读取正在重建的过滤器: 如果读到 null, 要么重建尚未开始(之后的扫描可以读到本次写入), 要么新的过滤器已经生效
+        final BloomFilter building = mBuildingBloomFilter;
+        final BloomFilter bloomFilter = mBloomFilter;
+        if (building != null) {
+            building.add(key);
+        }
+        if (bloomFilter != null) {
+            bloomFilter.add(key);
+        }
+    }
 
-        try {
-            SQLiteDatabase db = this.mOpenHelper.getWritableDatabase();
+    private void scheduleRebuildBloomFilter() {
+        if (mBloomFilterRebuildScheduled.compareAndSet(false, true)) {
+            Threads.postBackground(this::rebuildBloomFilter);
+        }
+    }
 
-            Cursor cursor = null;
-            long lastUpdate = 0L;
+    /**
+     * 按当前的数据条数重新建立布隆过滤器. 在事务中读取全部 key 与标记重建开始, 保证在此之后完成的写入都会加入新的过滤器.
+     */
+    private void rebuildBloomFilter() {
+        mBloomFilterRebuildScheduled.set(false);
+        final List<String> keys = new ArrayList<>();
+        BloomFilter building = null;
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
             try {
-                cursor =
-                        db.query(
-                                TABLE_NAME,
-                                new String[]{COLUMN_UPDATE},
-                                null,
-                                null,
-                                null,
-                                null,
-                                COLUMN_UPDATE + " desc",
-                                (maxRows - 1) + ",1");
-                if (cursor.moveToFirst()) {
-                    lastUpdate = cursor.getLong(0);
+                Cursor cursor = null;
+                try {
+                    cursor = db.query(mTableName, new String[]{COLUMN_KEY}, null, null, null, null, null);
+                    while (cursor.moveToNext()) {
+                        keys.add(cursor.getString(0));
+                    }
+                } finally {
+                    IOUtil.closeQuietly(cursor);
                 }
-            } catch (Throwable e) {
-                e.printStackTrace();
+                mBloomFilterKeys.set(keys.size());
+                building = new BloomFilter(Math.max(BLOOM_FILTER_MIN_CAPACITY, keys.size() * 2));
+                mBuildingBloomFilter = building;
+                mBloomFilterRemovals.set(0);
+                db.setTransactionSuccessful();
             } finally {
-                IOUtil.closeQuietly(cursor);
+                db.endTransaction();
             }
 
-            if (lastUpdate <= 0) {
-                return -1;
+            // 解密 key 比较耗时, 在事务之外进行
+            for (String key : keys) {
+                final String originKey = decodeKey(key);
+                if (originKey != null) {
+                    building.add(originKey);
+                }
             }
-
-            return db.delete(
-                    TABLE_NAME, COLUMN_UPDATE + "<?", new String[]{String.valueOf(lastUpdate)});
+            mBloomFilter = building;
+            mBloomFilterNegativeCount.set(0);
+            mBloomFilterFalsePositiveCount.set(0);
         } catch (Throwable e) {
             e.printStackTrace();
+        } finally {
+            if (building != null) {
+                mBuildingBloomFilter = null;
+            }
         }
-        return -1;
     }
 
     /**
-     * 清空数据，返回删除数据的条数, 如果出错，返回 -1.
+     * 上次重建布隆过滤器之后, 通过布隆过滤器直接判定不存在的读取次数, 未开启时返回 0
      */
-    public int clear() {
-        try {
-            SQLiteDatabase db = this.mOpenHelper.getWritableDatabase();
-            return db.delete(TABLE_NAME, null, null);
-        } catch (Throwable e) {
-            e.printStackTrace();
-        }
-        return -1;
+    public int getBloomFilterNegativeCount() {
+        return mBloomFilterNegativeCount.get();
     }
 
-    public void remove(@Nullable String key) {
-        if (TextUtils.isEmpty(key)) {
-            return;
-        }
-        try {
-            key = encodeKey(key);
+    /**
+     * 上次重建布隆过滤器之后, 布隆过滤器判定可能存在但实际不存在的读取次数, 未开启时返回 0
+     */
+    public int getBloomFilterFalsePositiveCount() {
+        return mBloomFilterFalsePositiveCount.get();
+    }
 
-            SQLiteDatabase db = this.mOpenHelper.getWritableDatabase();
-            db.delete(TABLE_NAME, COLUMN_KEY + "=?", new String[]{key});
-        } catch (Throwable e) {
-            e.printStackTrace();
-        }
+    /**
+     * 布隆过滤器的实际误判率, 即不存在的 key 中被判定为可能存在的比例, 没有统计数据时返回 0
+     */
+    public double getBloomFilterFalsePositiveRate() {
+        final int falsePositive = mBloomFilterFalsePositiveCount.get();
+        final int total = falsePositive + mBloomFilterNegativeCount.get();
+        return total > 0 ? (double) falsePositive / total : 0d;
+    }
+
+    /**
+     * 快照是否已经加载完成, 未开启快照时返回 false
+     */
+    public boolean isSnapshotReady() {
+        return mSnapshot != null;
     }
 
     /**
      * 如果失败，返回-1。
      */
+    @Override
     public int count() {
         Cursor cursor = null;
         try {
-            SQLiteDatabase db = this.mOpenHelper.getWritableDatabase();
-            cursor = db.rawQuery("select count(*) from " + TABLE_NAME, null);
+            SQLiteDatabase db = getReadableDatabase();
+            cursor = db.rawQuery("select count(*) from " + mTableName, null);
             if (cursor.moveToFirst()) {
                 return cursor.getInt(0);
             }
@@ -265,17 +2860,18 @@ public class SimpleDB {
     /**
      * only for debug
      */
+    @Override
     public void printAllRows() {
         Cursor cursor = null;
         try {
-            SQLiteDatabase db = this.mOpenHelper.getWritableDatabase();
+            SQLiteDatabase db = getReadableDatabase();
             String dbName = this.mOpenHelper.getDatabaseName();
             String dbPath = db.getPath();
             String tag = dbPath + "[" + dbName + "]";
             CoreLog.d("--" + tag + "--");
             cursor =
                     db.query(
-                            TABLE_NAME,
+                            mTableName,
                             new String[]{COLUMN_KEY, COLUMN_VALUE, COLUMN_UPDATE},
                             null,
                             null,
@@ -287,11 +2883,10 @@ public class SimpleDB {
             long update;
             for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
                 key = cursor.getString(0);
-                value = cursor.getString(1);
+                value = readValue(cursor, 1);
                 update = cursor.getLong(2);
 
                 key = decodeKey(key);
-                value = decodeValue(value);
 
                 CoreLog.d(dbName + " " + update + ", " + key + ", " + value);
             }
@@ -305,7 +2900,15 @@ public class SimpleDB {
 
     @NonNull
     private static String encodeKey(@Nullable final String key) throws Exception {
-        return AES.getDefault().encode(key, true);
+        if (key == null) {
+            return AES.getDefault().encode(null, true);
+        }
+        String encodedKey = sEncodedKeys.get(key);
+        if (encodedKey == null) {
+            encodedKey = AES.getDefault().encode(key, true);
+            sEncodedKeys.put(key, encodedKey);
+        }
+        return encodedKey;
     }
 
     @Nullable
@@ -314,13 +2917,455 @@ public class SimpleDB {
     }
 
     @NonNull
-    private static String encodeValue(@Nullable final String value) throws Exception {
-        return AES.getDefault().encode(value);
+    private static byte[] encodeValue(@NonNull final String value) throws Exception {
+        return ValueCodec.encode(value);
+    }
+
+    /**
+     * 读取 value 列, 兼容 v1 的文本格式与 v2 的 BLOB 格式
+     */
+    @Nullable
+    private static String readValue(@NonNull Cursor cursor, int columnIndex) throws Exception {
+        switch (cursor.getType(columnIndex)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_BLOB:
+                return ValueCodec.decode(cursor.getBlob(columnIndex));
+            default:
+                return decodeLegacyValue(cursor.getString(columnIndex));
+        }
+    }
+
+    /**
+     * 按写入时的类型读取 value 列, v1 的文本格式读取为 String
+     */
+    @Nullable
+    private static Object readObject(@NonNull Cursor cursor, int columnIndex) throws Exception {
+        switch (cursor.getType(columnIndex)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_BLOB:
+                return ValueCodec.decodeObject(cursor.getBlob(columnIndex));
+            default:
+                return decodeLegacyValue(cursor.getString(columnIndex));
+        }
+    }
+
+    /**
+     * @param expire 过期时间, 小于等于 0 表示永不过期
+     */
+    private static boolean isExpired(long expire, long now) {
+        return expire > 0 && expire <= now;
+    }
+
+    /**
+     * key 中最后一个分隔符及之前的部分, 不包含分隔符时返回空字符串
+     */
+    @NonNull
+    public static String getBucket(@NonNull String key) {
+        final int index = key.lastIndexOf(BUCKET_SPLIT);
+        if (index < 0) {
+            return BUCKET_NONE;
+        }
+        return key.substring(0, index + BUCKET_SPLIT.length());
+    }
+
+    /**
+     * bucket 列中存储的值. bucket 与 key 使用相同的稳定加密, 相同的 bucket 得到相同的结果, 可以直接用于索引查询.
+     */
+    @NonNull
+    private static String encodeBucket(@NonNull String key) throws Exception {
+        final String bucket = getBucket(key);
+        if (BUCKET_NONE.equals(bucket)) {
+            return BUCKET_NONE;
+        }
+        return encodeKey(bucket);
     }
 
+    /**
+     * 为尚未建立索引的数据分批补全 bucket 列, 每批在独立的事务中提交, 中断后下次打开数据库时继续.
+     */
+    private void buildBucketIndex() {
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            int batchSize;
+            do {
+                batchSize = 0;
+                db.beginTransaction();
+                Cursor cursor = null;
+                SQLiteStatement update = null;
+                try {
+                    cursor = db.rawQuery(sql(SQL_SELECT_UNINDEXED_KEYS) + MIGRATE_BATCH_SIZE, null);
+                    update = db.compileStatement(sql(SQL_UPDATE_BUCKET));
+                    while (cursor.moveToNext()) {
+                        batchSize++;
+                        final String key = cursor.getString(0);
+                        String bucket;
+                        try {
+                            bucket = encodeBucket(decodeKey(key));
+                        } catch (Throwable e) {
+                            CoreLog.e(e, "fail to decode key");
+                            bucket = BUCKET_NONE;
+                        }
+                        update.bindString(1, bucket);
+                        update.bindString(2, key);
+                        update.executeUpdateDelete();
+                        update.clearBindings();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    IOUtil.closeQuietly(cursor);
+                    if (update != null) {
+                        update.close();
+                    }
+                    db.endTransaction();
+                }
+            } while (batchSize >= MIGRATE_BATCH_SIZE);
+            mBucketIndexReady = true;
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 解析 v1 格式的 value
+     */
     @Nullable
-    private static String decodeValue(@NonNull final String encodedValue) throws Exception {
+    private static String decodeLegacyValue(@NonNull final String encodedValue) throws Exception {
         return AES.getDefault().decode(encodedValue);
     }
 
+    /**
+     * 将 v1 格式的 value 分批转换为 v2 格式. 每批在独立的事务中提交, 进程中断后下次打开数据库时从剩余的数据继续.
+     * 无法解析的数据会被删除.
+     */
+    private void migrateLegacyValues() {
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            int migrated = 0;
+            int batchSize;
+            do {
+                batchSize = 0;
+                db.beginTransaction();
+                Cursor cursor = null;
+                SQLiteStatement update = null;
+                try {
+                    cursor = db.rawQuery(sql(SQL_SELECT_LEGACY_VALUES) + MIGRATE_BATCH_SIZE, null);
+                    update = db.compileStatement(sql(SQL_UPDATE_LEGACY_VALUE));
+                    while (cursor.moveToNext()) {
+                        batchSize++;
+                        final String key = cursor.getString(0);
+                        byte[] value = null;
+                        try {
+                            final String legacyValue = decodeLegacyValue(cursor.getString(1));
+                            if (!TextUtils.isEmpty(legacyValue)) {
+                                value = encodeValue(legacyValue);
+                            }
+                        } catch (Throwable e) {
+                            CoreLog.e(e, "fail to decode legacy value, remove it");
+                        }
+                        if (value == null) {
+                            onRowsDeleted(db.delete(mTableName, COLUMN_KEY + "=?", new String[]{key}));
+                            continue;
+                        }
+                        update.bindBlob(1, value);
+                        update.bindLong(2, key.length() + value.length);
+                        update.bindString(3, key);
+                        update.executeUpdateDelete();
+                        update.clearBindings();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    IOUtil.closeQuietly(cursor);
+                    if (update != null) {
+                        update.close();
+                    }
+                    db.endTransaction();
+                }
+                migrated += batchSize;
+            } while (batchSize >= MIGRATE_BATCH_SIZE);
+
+            if (migrated > 0) {
+                CoreLog.v("migrate %s legacy values of %s", migrated, this.mOpenHelper.getDatabaseName());
+            }
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 内存缓存中的数据, value 为 null 表示该 key 不存在
+     */
+    private static final class CacheEntry {
+        /**
+         * 按写入时的类型解码后的值
+         */
+        @Nullable
+        private final Object value;
+        private final long expire;
+
+        private CacheEntry(@Nullable Object value, long expire) {
+            this.value = value;
+            this.expire = expire;
+        }
+    }
+
+    /**
+     * 快照中需要从数据库中重新读取的 key 对应的值
+     */
+    private static final CacheEntry SNAPSHOT_STALE = new CacheEntry(null, 0L);
+
+    /**
+     * 一个线程中(可能嵌套的)事务内写入的 key
+     */
+    private static final class TransactionKeys {
+        private int depth;
+        /**
+         * 为 null 时表示需要清除全部
+         */
+        @Nullable
+        private Set<String> keys = new HashSet<>();
+
+        private void add(@Nullable String key) {
+            if (key == null) {
+                keys = null;
+            } else if (keys != null) {
+                keys.add(key);
+            }
+        }
+    }
+
+    /**
+     * 逐条遍历数据时的回调
+     *
+     * @see #forEach(long, long, RowVisitor, AbortSignal, Progress)
+     */
+    public interface RowVisitor {
+        void onRow(@NonNull String key, @Nullable String value, long update);
+    }
+
+    /**
+     * 其它进程写入数据后的回调
+     *
+     * @see #setOnExternalChangeListener(OnExternalChangeListener)
+     */
+    public interface OnExternalChangeListener {
+        /**
+         * @param keys 发生变更的 key, 为 null 时表示变更的 key 未知(如变更过多), 需要重新读取全部数据
+         */
+        void onExternalChange(@Nullable Set<String> keys);
+    }
+
+    /**
+     * 预编译语句池. SQLiteStatement 的参数绑定不是线程安全的, 每个线程从池中取出独占的语句,
+     * 使用完毕后清除绑定并归还, 避免每次调用都重新解析 SQL.
+     * <p>
+     * 只用于写操作. SQLiteStatement 只能读取单个数值或者文本, 无法读取 BLOB 类型的 value, 因此读操作仍然使用 rawQuery.
+     * rawQuery 不会重复解析固定的 SQL (命中连接内的预编译语句缓存), 但每次调用都会创建 Cursor 与 CursorWindow.
+     */
+    private class StatementPool {
+
+        private static final int MAX_IDLE_SIZE = 4;
+
+        private final String mSql;
+        private final ConcurrentLinkedQueue<SQLiteStatement> mIdle = new ConcurrentLinkedQueue<>();
+
+        private StatementPool(@NonNull String sql) {
+            mSql = sql;
+        }
+
+        @NonNull
+        private SQLiteStatement acquire() {
+            SQLiteStatement statement = mIdle.poll();
+            if (statement == null) {
+                statement = getWritableDatabase().compileStatement(sql(mSql));
+            }
+            return statement;
+        }
+
+        private void release(@Nullable SQLiteStatement statement) {
+            if (statement == null) {
+                return;
+            }
+            statement.clearBindings();
+            if (mIdle.size() < MAX_IDLE_SIZE) {
+                mIdle.offer(statement);
+            } else {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * SimpleDB 的可选配置
+     */
+    public static class Config {
+
+        private int mMaxCacheSize;
+        private boolean mWriteAheadLoggingEnabled;
+        private boolean mBucketIndexEnabled;
+        private long mMaxBytes;
+        private int mMaxRows;
+        private boolean mMultiProcess;
+        private boolean mDeferredTouchEnabled;
+        @Nullable
+        private String mSharedDatabaseName;
+        private boolean mSnapshotEnabled;
+        private boolean mBloomFilterEnabled;
+
+        public int getMaxCacheSize() {
+            return mMaxCacheSize;
+        }
+
+        /**
+         * 内存缓存的最大条数, 小于等于 0 时不使用缓存. 默认不使用缓存.
+         */
+        public Config setMaxCacheSize(int maxCacheSize) {
+            mMaxCacheSize = maxCacheSize;
+            return this;
+        }
+
+        public int getMaxRows() {
+            return mMaxRows;
+        }
+
+        /**
+         * 数据条数的上限. 每次新增数据后如果超出上限, 删除一小批最旧的数据. 小于等于 0 时不限制, 默认不限制.
+         */
+        public Config setMaxRows(int maxRows) {
+            mMaxRows = maxRows;
+            return this;
+        }
+
+        public long getMaxBytes() {
+            return mMaxBytes;
+        }
+
+        /**
+         * 数据总大小(字节)的上限, 超出后按更新时间从旧到新删除数据. 小于等于 0 时不限制, 默认不限制.
+         *
+         * @see #trimBytes(long)
+         */
+        public Config setMaxBytes(long maxBytes) {
+            mMaxBytes = maxBytes;
+            return this;
+        }
+
+        public boolean isBucketIndexEnabled() {
+            return mBucketIndexEnabled;
+        }
+
+        /**
+         * 是否维护 bucket 索引列, 开启后 {@linkplain #getByPrefix(String)} 只读取匹配的数据. 默认不开启.
+         */
+        public Config setBucketIndexEnabled(boolean bucketIndexEnabled) {
+            mBucketIndexEnabled = bucketIndexEnabled;
+            return this;
+        }
+
+        public boolean isWriteAheadLoggingEnabled() {
+            return mWriteAheadLoggingEnabled;
+        }
+
+        /**
+         * 是否开启 WAL 模式. 开启后读操作不再排在写操作之后, 适合后台线程中读多写少且存在并发读的场景. 默认不开启.
+         */
+        public Config setWriteAheadLoggingEnabled(boolean writeAheadLoggingEnabled) {
+            mWriteAheadLoggingEnabled = writeAheadLoggingEnabled;
+            return this;
+        }
+
+        public boolean isDeferredTouchEnabled() {
+            return mDeferredTouchEnabled;
+        }
+
+        /**
+         * 是否延迟写入 {@linkplain #touch(String)} 的访问时间. 开启后访问时间先记录在内存中, 定期或者积累到一定数量后
+         * 在一个事务中写入, 读多写少的缓存场景中不再每次读取都产生一次写操作. 进程退出时尚未写入的访问时间会丢失. 默认不开启.
+         */
+        public Config setDeferredTouchEnabled(boolean deferredTouchEnabled) {
+            mDeferredTouchEnabled = deferredTouchEnabled;
+            return this;
+        }
+
+        @Nullable
+        public String getSharedDatabaseName() {
+            return mSharedDatabaseName;
+        }
+
+        /**
+         * 与其它使用相同 sharedDatabaseName 的 SimpleDB 共用同一个数据库文件, 每个 SimpleDB 使用以 databaseName 区分的独立的表,
+         * 同时打开多个 SimpleDB 时只打开一个数据库文件与连接. trim, clear 等操作只作用于当前的表. 为 null 时独占数据库文件, 默认为 null.
+         * <p>
+         * 切换后第一次打开时在后台复制原有数据库文件中的数据(已存在的 key 不覆盖), 复制完成之前的读写需要等待, 原文件保持不变.
+         * 切换回独占数据库文件后, 共用期间写入的数据不可见. 不支持与 {@linkplain #setMultiProcess(boolean)} 同时使用.
+         */
+        public Config setSharedDatabaseName(@Nullable String sharedDatabaseName) {
+            mSharedDatabaseName = sharedDatabaseName;
+            return this;
+        }
+
+        public boolean isSnapshotEnabled() {
+            return mSnapshotEnabled;
+        }
+
+        /**
+         * 是否在后台将全部数据加载为内存中的不可变快照, 加载完成后读操作只查询快照, 不加锁也不访问数据库.
+         * 每次写操作都会复制整个快照, 适合数据量小, 读多写少的 namespace(如设置项). 默认不开启.
+         */
+        public Config setSnapshotEnabled(boolean snapshotEnabled) {
+            mSnapshotEnabled = snapshotEnabled;
+            return this;
+        }
+
+        public boolean isBloomFilterEnabled() {
+            return mBloomFilterEnabled;
+        }
+
+        /**
+         * 是否使用内存中的布隆过滤器判断 key 一定不存在, 适合经常读取不存在的 key 的场景(如功能开关, 一次性标记).
+         * 打开时在后台读取全部 key 建立, 删除的数据积累到一定数量后重新建立. 不支持与 {@linkplain #setMultiProcess(boolean)}
+         * 同时使用. 默认不开启.
+         *
+         * @see #getBloomFilterFalsePositiveRate()
+         */
+        public Config setBloomFilterEnabled(boolean bloomFilterEnabled) {
+            mBloomFilterEnabled = bloomFilterEnabled;
+            return this;
+        }
+
+        public boolean isMultiProcess() {
+            return mMultiProcess;
+        }
+
+        /**
+         * 是否在多个进程之间共享数据库. 开启后数据库名不再附加进程标识, 各进程的写操作通过变更记录表与
+         * {@linkplain SharedDBProvider} 通知其它进程, 其它进程只清除发生变更的 key 的缓存. 默认不开启.
+         * <p>
+         * 其它进程的写入在收到通知之前可能读到缓存中的旧值.
+         */
+        public Config setMultiProcess(boolean multiProcess) {
+            mMultiProcess = multiProcess;
+            return this;
+        }
+
+        /**
+         * 复制一份配置, 修改副本不影响当前配置
+         */
+        public Config copy() {
+            final Config config = new Config();
+            config.mMaxCacheSize = mMaxCacheSize;
+            config.mWriteAheadLoggingEnabled = mWriteAheadLoggingEnabled;
+            config.mBucketIndexEnabled = mBucketIndexEnabled;
+            config.mMaxBytes = mMaxBytes;
+            config.mMaxRows = mMaxRows;
+            config.mMultiProcess = mMultiProcess;
+            config.mDeferredTouchEnabled = mDeferredTouchEnabled;
+            config.mSharedDatabaseName = mSharedDatabaseName;
+            config.mSnapshotEnabled = mSnapshotEnabled;
+            config.mBloomFilterEnabled = mBloomFilterEnabled;
+            return config;
+        }
+    }
+
 }
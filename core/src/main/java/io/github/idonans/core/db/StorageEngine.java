@@ -0,0 +1,125 @@
+package io.github.idonans.core.db;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * KV 存储引擎. key 与 value 均为字符串, value 为空时表示删除对应的 key.
+ *
+ * @see SimpleDB
+ * @see MappedDB
+ */
+public interface StorageEngine {
+
+    /**
+     * 打开数据库并完成初始化, 耗时操作, 需要在后台线程中调用. 不调用时在第一次读写时初始化.
+     */
+    void prewarm();
+
+    @Nullable
+    String get(@Nullable String key);
+
+    /**
+     * 批量读取, 结果中不包含不存在的 key. 如果出错返回 null
+     */
+    @Nullable
+    Map<String, String> getMany(@Nullable Collection<String> keys);
+
+    /**
+     * 如果出错返回 null
+     */
+    @Nullable
+    Map<String, String> getAll();
+
+    /**
+     * 查询 bucket 等于 prefix 的全部数据, 如果出错返回 null
+     *
+     * @see SimpleDB#getBucket(String)
+     */
+    @Nullable
+    Map<String, String> getByPrefix(@Nullable String prefix);
+
+    void set(@Nullable String key, @Nullable String value);
+
+    /**
+     * @param ttlMillis 有效期(毫秒), 小于等于 0 时表示永不过期
+     */
+    void set(@Nullable String key, @Nullable String value, long ttlMillis);
+
+    /**
+     * 如果 key 不存在则写入 value, 原子操作
+     *
+     * @return 写入成功返回 true, key 已存在或者写入失败返回 false, 已经存在的值可以通过 {@linkplain #get(String)} 读取
+     */
+    boolean putIfAbsent(@Nullable String key, @Nullable String value);
+
+    /**
+     * 当前值与 expect 相等时写入 update, 原子操作
+     *
+     * @param expect 为空时表示期望 key 不存在
+     * @param update 为空时删除 key
+     * @return 当前值与 expect 相等并且写入成功时返回 true
+     */
+    boolean compareAndSet(@Nullable String key, @Nullable String expect, @Nullable String update);
+
+    void setAll(@Nullable Map<String, String> data);
+
+    void remove(@Nullable String key);
+
+    void removeAll(@Nullable Collection<String> keys);
+
+    /**
+     * 批量执行读写, 返回是否执行成功
+     */
+    boolean runInTransaction(@NonNull Runnable runnable);
+
+    /**
+     * 按更新时间保留最新的 maxRows 条数据, 返回删除的条数, 如果不满足删除条件返回 -1.
+     */
+    int trim(int maxRows);
+
+    /**
+     * 按更新时间从旧到新删除数据直到总大小不超过 maxBytes, 返回删除的条数, 如果不满足删除条件返回 -1.
+     */
+    int trimBytes(long maxBytes);
+
+    /**
+     * 删除已经过期的数据, 返回删除的条数, 如果出错返回 -1.
+     */
+    int sweepExpired();
+
+    /**
+     * 清空数据, 返回删除的条数, 如果出错返回 -1.
+     */
+    int clear();
+
+    /**
+     * 如果出错返回 -1
+     */
+    int count();
+
+    /**
+     * only for debug
+     */
+    void printAllRows();
+
+    /**
+     * 设置数据因超出条数或者大小上限被自动删除时的回调, 可能在任意线程中回调
+     */
+    void setOnEvictListener(@Nullable OnEvictListener listener);
+
+    /**
+     * 数据被自动删除的回调
+     */
+    interface OnEvictListener {
+        /**
+         * @param keys 被删除的 key, 为 null 时表示被删除的 key 未知
+         */
+        void onEvict(@Nullable Set<String> keys);
+    }
+
+}
@@ -0,0 +1,164 @@
+package io.github.idonans.core.db;
+
+import androidx.annotation.NonNull;
+
+import io.github.idonans.core.Base64;
+import io.github.idonans.core.Charsets;
+import io.github.idonans.core.security.AES;
+import io.github.idonans.core.util.ZipUtil;
+
+/**
+ * SimpleDB 中 value 的二进制存储格式 (schema v2):
+ * <pre>
+ * [format 1 byte][flags 1 byte][AES(value bytes)]
+ * </pre>
+ * flags 的低 4 位为 value 的类型, 字符串为 UTF-8 编码, 数值为大端序的定长编码.
+ * flags 中的 {@linkplain #FLAG_DEFLATE} 表示 value bytes 在加密前经过了压缩.
+ */
+final class ValueCodec {
+
+    private static final byte FORMAT_V2 = 2;
+    private static final int HEADER_LENGTH = 2;
+
+    static final int TYPE_STRING = 0;
+    static final int TYPE_INT = 1;
+    static final int TYPE_LONG = 2;
+    static final int TYPE_BOOLEAN = 3;
+    static final int TYPE_DOUBLE = 4;
+    static final int TYPE_BYTES = 5;
+    private static final int TYPE_MASK = 0x0F;
+    private static final int FLAG_DEFLATE = 0x10;
+
+    /**
+     * value bytes 达到该长度时尝试压缩, 压缩后更小时才使用压缩结果
+     */
+    private static final int DEFLATE_THRESHOLD = 1024;
+
+    private ValueCodec() {
+    }
+
+    @NonNull
+    static byte[] encode(@NonNull String value) throws Exception {
+        return encode(TYPE_STRING, value.getBytes(Charsets.UTF8));
+    }
+
+    @NonNull
+    static byte[] encodeInt(int value) throws Exception {
+        final byte[] bytes = new byte[4];
+        putLong(bytes, value, 4);
+        return encode(TYPE_INT, bytes);
+    }
+
+    @NonNull
+    static byte[] encodeLong(long value) throws Exception {
+        final byte[] bytes = new byte[8];
+        putLong(bytes, value, 8);
+        return encode(TYPE_LONG, bytes);
+    }
+
+    @NonNull
+    static byte[] encodeBoolean(boolean value) throws Exception {
+        return encode(TYPE_BOOLEAN, new byte[]{(byte) (value ? 1 : 0)});
+    }
+
+    @NonNull
+    static byte[] encodeDouble(double value) throws Exception {
+        final byte[] bytes = new byte[8];
+        putLong(bytes, Double.doubleToRawLongBits(value), 8);
+        return encode(TYPE_DOUBLE, bytes);
+    }
+
+    @NonNull
+    static byte[] encodeBytes(@NonNull byte[] value) throws Exception {
+        return encode(TYPE_BYTES, value);
+    }
+
+    @NonNull
+    private static byte[] encode(int type, @NonNull byte[] plain) throws Exception {
+        int flags = type;
+        if (plain.length >= DEFLATE_THRESHOLD) {
+            final byte[] deflated = ZipUtil.deflate(plain);
+            if (deflated.length < plain.length) {
+                plain = deflated;
+                flags |= FLAG_DEFLATE;
+            }
+        }
+        final byte[] encrypted = AES.getDefault().encodeBytes(plain);
+        final byte[] output = new byte[HEADER_LENGTH + encrypted.length];
+        output[0] = FORMAT_V2;
+        output[1] = (byte) flags;
+        System.arraycopy(encrypted, 0, output, HEADER_LENGTH, encrypted.length);
+        return output;
+    }
+
+    /**
+     * 解码为字符串, 非字符串类型的 value 转换为对应的文本形式, byte[] 转换为 Base64
+     */
+    @NonNull
+    static String decode(@NonNull byte[] input) throws Exception {
+        return toString(decodeObject(input));
+    }
+
+    /**
+     * 按类型解码, 返回 String, Integer, Long, Boolean, Double 或者 byte[]
+     */
+    @NonNull
+    static Object decodeObject(@NonNull byte[] input) throws Exception {
+        if (input.length < HEADER_LENGTH || input[0] != FORMAT_V2) {
+            throw new IllegalArgumentException("unknown value format");
+        }
+        final byte[] encrypted = new byte[input.length - HEADER_LENGTH];
+        System.arraycopy(input, HEADER_LENGTH, encrypted, 0, encrypted.length);
+        byte[] plain = AES.getDefault().decodeBytes(encrypted);
+        if ((input[1] & FLAG_DEFLATE) != 0) {
+            plain = ZipUtil.inflate(plain);
+        }
+        final int type = input[1] & TYPE_MASK;
+        switch (type) {
+            case TYPE_STRING:
+                return new String(plain, Charsets.UTF8);
+            case TYPE_INT:
+                return (int) getLong(plain, 4);
+            case TYPE_LONG:
+                return getLong(plain, 8);
+            case TYPE_BOOLEAN:
+                return plain.length > 0 && plain[0] != 0;
+            case TYPE_DOUBLE:
+                return Double.longBitsToDouble(getLong(plain, 8));
+            case TYPE_BYTES:
+                return plain;
+            default:
+                throw new IllegalArgumentException("unknown value type " + type);
+        }
+    }
+
+    @NonNull
+    static String toString(@NonNull Object value) {
+        if (value instanceof String) {
+            return (String) value;
+        }
+        if (value instanceof byte[]) {
+            return Base64.encode((byte[]) value);
+        }
+        return String.valueOf(value);
+    }
+
+    private static void putLong(@NonNull byte[] output, long value, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            output[i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static long getLong(@NonNull byte[] input, int length) {
+        if (input.length != length) {
+            throw new IllegalArgumentException("unexpected value length " + input.length);
+        }
+        long value = 0L;
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (input[i] & 0xFF);
+        }
+        return value;
+    }
+
+}
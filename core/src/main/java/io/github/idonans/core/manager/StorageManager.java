@@ -3,23 +3,61 @@ package io.github.idonans.core.manager;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import io.github.idonans.core.AbortSignal;
 import io.github.idonans.core.Constants;
 import io.github.idonans.core.CoreLog;
+import io.github.idonans.core.Progress;
 import io.github.idonans.core.Singleton;
+import io.github.idonans.core.db.MappedDB;
 import io.github.idonans.core.db.SimpleDB;
+import io.github.idonans.core.db.StorageEngine;
+import io.github.idonans.core.security.AES;
+import io.github.idonans.core.thread.BatchQueue;
+import io.github.idonans.core.thread.Threads;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * 不支持跨进程，不同进程所在存储空间不同
+ * 默认不支持跨进程，不同进程所在存储空间不同. 需要在进程间共享的 namespace 可以通过
+ * {@linkplain #setConfig(String, SimpleDB.Config)} 开启 {@linkplain SimpleDB.Config#setMultiProcess(boolean)}.
  */
 public class StorageManager {
 
     public static final String NAMESPACE_SETTING = Constants.GLOBAL_PREFIX + "setting";
     public static final String NAMESPACE_CACHE = Constants.GLOBAL_PREFIX + "cache";
 
+    /**
+     * 基于 SQLite 的存储, 默认
+     *
+     * @see SimpleDB
+     */
+    public static final int ENGINE_SIMPLE_DB = 0;
+    /**
+     * 基于内存映射文件的存储, 全部数据常驻内存, 适合数据量小且读写频繁的 namespace
+     *
+     * @see MappedDB
+     */
+    public static final int ENGINE_MAPPED = 1;
+
+    /**
+     * 开启 {@linkplain #setSingleDatabaseEnabled(boolean)} 时各个 namespace 共用的数据库名
+     */
+    private static final String SINGLE_DATABASE_NAME = "storage";
+
     private static final Singleton<StorageManager> INSTANCE =
             new Singleton<StorageManager>() {
                 @Override
@@ -32,55 +70,636 @@ public class StorageManager {
         return INSTANCE.get();
     }
 
-    private final Map<String, SimpleDB> mProviders = new HashMap<>();
+    /**
+     * 读取不加锁, 创建时在 mProviders 上加锁
+     */
+    private final Map<String, StorageEngine> mProviders = new ConcurrentHashMap<>();
+    private final Map<String, SimpleDB.Config> mConfigs = new HashMap<>();
+    private final Map<String, Integer> mEngines = new HashMap<>();
+    private boolean mSingleDatabaseEnabled;
+
+    /**
+     * getOrSetLock 使用的分段锁, 不同的 key 大概率使用不同的锁, 互不阻塞
+     */
+    private final Object[] mGetOrSetLocks = new Object[GET_OR_SET_LOCK_STRIPES];
 
-    private final Object mGetOrSetLock = new Object();
+    /**
+     * 通过 apply 提交但尚未写入数据库的数据, namespace -> (key -> PendingWrite)
+     */
+    private final Map<String, Map<String, PendingWrite>> mPendingWrites = new HashMap<>();
+    /**
+     * pending 数据落盘与同步写操作之间的先后顺序不使用 Java 锁(避免持有 Java 锁等待数据库连接):
+     * 同步写操作先取消该 key 的 pending 数据再写入; writePending 在事务中逐条确认数据仍处于 pending 状态后才写入,
+     * 确认之后才取消的同步写操作需要等待该事务提交, 因此旧值不会覆盖新值.
+     */
+    private final BatchQueue<PendingWrite> mApplyQueue = new BatchQueue<>();
+
+    private final List<ChangeObserver> mChangeObservers = new CopyOnWriteArrayList<>();
 
     private StorageManager() {
         CoreLog.v("init");
+        for (int i = 0; i < mGetOrSetLocks.length; i++) {
+            mGetOrSetLocks[i] = new Object();
+        }
+        // 使用默认的追加合并, apply 时不遍历队列. 同一个 key 被覆盖的旧写入在 writePending 中通过 isPending 跳过
+        mApplyQueue.setConsumer(this::writePending);
+        scheduleSweepExpired();
+    }
+
+    /**
+     * 设置 namespace 使用的数据库配置(如开启 WAL, 限制数据总大小), 需要在该 namespace 第一次被访问之前调用, 否则不生效.
+     * 设置后不再使用默认的缓存大小与数据条数上限, 以 config 中的值为准. 之后修改 config 不影响已打开的 namespace.
+     */
+    public void setConfig(String namespace, SimpleDB.Config config) {
+        namespace = checkNamespace(namespace);
+        synchronized (mProviders) {
+            if (mProviders.containsKey(namespace)) {
+                CoreLog.e("namespace %s is already opened, config is ignored", namespace);
+                return;
+            }
+            mConfigs.put(namespace, config);
+        }
+    }
+
+    /**
+     * 设置 namespace 使用的存储引擎, 需要在该 namespace 第一次被访问之前调用, 否则不生效.
+     * 不同引擎的数据互相独立, 切换引擎后原有的数据不可见.
+     *
+     * @param engine {@linkplain #ENGINE_SIMPLE_DB} 或者 {@linkplain #ENGINE_MAPPED}
+     */
+    public void setEngine(String namespace, int engine) {
+        namespace = checkNamespace(namespace);
+        if (engine != ENGINE_SIMPLE_DB && engine != ENGINE_MAPPED) {
+            throw new IllegalArgumentException("unknown engine " + engine);
+        }
+        synchronized (mProviders) {
+            if (mProviders.containsKey(namespace)) {
+                CoreLog.e("namespace %s is already opened, engine is ignored", namespace);
+                return;
+            }
+            mEngines.put(namespace, engine);
+        }
+    }
+
+    /**
+     * 是否让使用 {@linkplain #ENGINE_SIMPLE_DB} 的 namespace 共用同一个数据库文件, 每个 namespace 对应其中的一张表.
+     * 开启后同时打开多个 namespace 只需要打开一次数据库. 通过 {@linkplain #setConfig(String, SimpleDB.Config)}
+     * 单独指定了 {@linkplain SimpleDB.Config#setSharedDatabaseName(String)} 或者开启多进程共享的 namespace 不受影响.
+     * 需要在第一次访问任意 namespace 之前调用. 开启后第一次打开 namespace 时在后台复制该 namespace 原有数据库文件中的数据,
+     * 可以通过 {@linkplain #prewarm(String...)} 提前开始. 原文件保持不变; 关闭后开启期间写入的数据不可见. 默认不开启.
+     */
+    public void setSingleDatabaseEnabled(boolean singleDatabaseEnabled) {
+        synchronized (mProviders) {
+            if (!mProviders.isEmpty()) {
+                CoreLog.e("some namespace is already opened, single database enabled is ignored");
+                return;
+            }
+            mSingleDatabaseEnabled = singleDatabaseEnabled;
+        }
+    }
+
+    /**
+     * 在后台线程中打开指定的 namespace 并初始化加密算法, 之后的读写不再需要等待打开数据库.
+     * 可以在 Application#onCreate 中调用, 需要先完成 {@linkplain #setConfig(String, SimpleDB.Config)} 与
+     * {@linkplain #setEngine(String, int)}.
+     */
+    public void prewarm(String... namespaces) {
+        final List<String> targets = new ArrayList<>();
+        if (namespaces != null) {
+            for (String namespace : namespaces) {
+                targets.add(checkNamespace(namespace));
+            }
+        }
+        Threads.postBackground(() -> {
+            try {
+                AES.getDefault().prewarm();
+            } catch (Throwable e) {
+                CoreLog.e(e, "fail to prewarm AES");
+            }
+            for (String namespace : targets) {
+                getTarget(namespace).prewarm();
+            }
+        });
     }
 
     public void set(String namespace, String key, String value) {
-        getTarget(namespace).set(key, value);
+        set(namespace, key, value, 0L);
+    }
+
+    /**
+     * 写入数据并指定有效期, 过期的数据读取不到, 并由后台定期清理.
+     *
+     * @param ttlMillis 有效期(毫秒), 小于等于 0 时表示永不过期
+     * @see SimpleDB#set(String, String, long)
+     */
+    public void set(String namespace, String key, String value, long ttlMillis) {
+        StorageEngine target = getTarget(namespace);
+        cancelPending(namespace, key);
+        target.set(key, value, ttlMillis);
+        dispatchChange(namespace, Collections.singleton(key));
+    }
+
+    /**
+     * 异步写入, 类似于 SharedPreferences#apply. 立即返回, 数据在后台线程中批量写入数据库,
+     * 同一个 key 的多次写入会被合并. 写入完成之前, 通过 get 可以读取到最新的值.
+     *
+     * @see #flush()
+     */
+    public void apply(String namespace, String key, String value) {
+        namespace = checkNamespace(namespace);
+        if (TextUtils.isEmpty(key)) {
+            return;
+        }
+
+        final PendingWrite pendingWrite = new PendingWrite(namespace, key, value);
+        synchronized (mPendingWrites) {
+            Map<String, PendingWrite> pending = mPendingWrites.get(namespace);
+            if (pending == null) {
+                pending = new HashMap<>();
+                mPendingWrites.put(namespace, pending);
+            }
+            pending.put(key, pendingWrite);
+        }
+        mApplyQueue.add(pendingWrite);
+        // 写入完成之前通过 get 已经可以读取到新值
+        dispatchChange(namespace, Collections.singleton(key));
+    }
+
+    /**
+     * 将所有通过 apply 提交但尚未写入的数据在当前线程中立即写入数据库. 会阻塞当前线程, 可以在进程退出前调用.
+     */
+    public void flush() {
+        final List<PendingWrite> pendingList = new ArrayList<>();
+        synchronized (mPendingWrites) {
+            for (Map<String, PendingWrite> pending : mPendingWrites.values()) {
+                pendingList.addAll(pending.values());
+            }
+        }
+        if (!pendingList.isEmpty()) {
+            writePending(pendingList);
+        }
     }
 
     public String get(String namespace, String key) {
-        return getTarget(namespace).get(key);
+        StorageEngine target = getTarget(namespace);
+        synchronized (mPendingWrites) {
+            Map<String, PendingWrite> pending = mPendingWrites.get(namespace);
+            if (pending != null) {
+                PendingWrite pendingWrite = pending.get(key);
+                if (pendingWrite != null) {
+                    return pendingWrite.value;
+                }
+            }
+        }
+        return target.get(key);
+    }
+
+    /**
+     * 批量读取, 结果中不包含不存在的 key. 尚未写入的异步数据优先.
+     *
+     * @see StorageEngine#getMany(Collection)
+     */
+    public Map<String, String> getMany(String namespace, Collection<String> keys) {
+        StorageEngine target = getTarget(namespace);
+        if (keys == null || keys.isEmpty()) {
+            return new HashMap<>();
+        }
+
+        final Map<String, PendingWrite> pendingWrites = new HashMap<>();
+        synchronized (mPendingWrites) {
+            Map<String, PendingWrite> pending = mPendingWrites.get(namespace);
+            if (pending != null) {
+                for (String key : keys) {
+                    PendingWrite pendingWrite = pending.get(key);
+                    if (pendingWrite != null) {
+                        pendingWrites.put(key, pendingWrite);
+                    }
+                }
+            }
+        }
+
+        final Map<String, String> data;
+        if (pendingWrites.isEmpty()) {
+            data = target.getMany(keys);
+        } else {
+            final List<String> otherKeys = new ArrayList<>(keys);
+            otherKeys.removeAll(pendingWrites.keySet());
+            data = target.getMany(otherKeys);
+        }
+        if (data == null) {
+            return null;
+        }
+        for (PendingWrite pendingWrite : pendingWrites.values()) {
+            if (!TextUtils.isEmpty(pendingWrite.value)) {
+                data.put(pendingWrite.key, pendingWrite.value);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * 按 key 前缀查询
+     *
+     * @see SimpleDB#getByPrefix(String)
+     */
+    public Map<String, String> getByPrefix(String namespace, String prefix) {
+        final Map<String, String> data = getTarget(namespace).getByPrefix(prefix);
+        if (data == null) {
+            return null;
+        }
+        synchronized (mPendingWrites) {
+            Map<String, PendingWrite> pending = mPendingWrites.get(namespace);
+            if (pending != null) {
+                for (PendingWrite pendingWrite : pending.values()) {
+                    if (!SimpleDB.getBucket(pendingWrite.key).equals(prefix)) {
+                        continue;
+                    }
+                    if (TextUtils.isEmpty(pendingWrite.value)) {
+                        data.remove(pendingWrite.key);
+                    } else {
+                        data.put(pendingWrite.key, pendingWrite.value);
+                    }
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * 在同一个事务中批量写入
+     *
+     * @see SimpleDB#setAll(Map)
+     */
+    public void setAll(String namespace, Map<String, String> data) {
+        StorageEngine target = getTarget(namespace);
+        if (data != null) {
+            cancelPending(namespace, data.keySet());
+        }
+        target.setAll(data);
+        if (data != null) {
+            dispatchChange(namespace, data.keySet());
+        }
+    }
+
+    /**
+     * 在同一个事务中批量删除
+     *
+     * @see SimpleDB#removeAll(Collection)
+     */
+    public void removeAll(String namespace, Collection<String> keys) {
+        StorageEngine target = getTarget(namespace);
+        if (keys != null) {
+            cancelPending(namespace, keys);
+        }
+        target.removeAll(keys);
+        if (keys != null) {
+            dispatchChange(namespace, keys);
+        }
+    }
+
+    /**
+     * 在同一个事务中执行 runnable, runnable 中对该 namespace 的读写只提交一次.
+     * 执行成功后以变更的 key 未知的方式通知该 namespace 的监听.
+     *
+     * @see SimpleDB#runInTransaction(Runnable)
+     */
+    public boolean runInTransaction(String namespace, Runnable runnable) {
+        final boolean success = getTarget(namespace).runInTransaction(runnable);
+        if (success) {
+            dispatchChange(namespace, null);
+        }
+        return success;
     }
 
+    /**
+     * 读取 key 对应的值, 如果不存在则写入 setValue 并返回 setValue. 同一个 key 的并发调用只有一个写入生效,
+     * 不同 key 之间互不阻塞. 写入失败时返回 null.
+     */
     public String getOrSetLock(String namespace, String key, String setValue) {
-        String value;
-        SimpleDB target = getTarget(namespace);
-        synchronized (mGetOrSetLock) {
-            value = target.get(key);
-            if (TextUtils.isEmpty(value)) {
+        String value = get(namespace, key);
+        if (!TextUtils.isEmpty(value)) {
+            return value;
+        }
+
+        StorageEngine target = getTarget(namespace);
+        synchronized (getGetOrSetLock(namespace, key)) {
+            value = get(namespace, key);
+            if (!TextUtils.isEmpty(value)) {
+                return value;
+            }
+            if (isPending(namespace, key)) {
+                // 尚未写入的删除操作, 直接覆盖
                 value = setValue;
-                target.set(key, value);
+                set(namespace, key, value);
+                return value;
             }
+            // 共享的 namespace 中其它进程可能同时写入, 由 putIfAbsent 保证只有一个生效
+            if (!target.putIfAbsent(key, setValue)) {
+                // 已经存在的值, 为 null 时表示写入失败
+                return target.get(key);
+            }
+            dispatchChange(namespace, Collections.singleton(key));
+            return setValue;
         }
-        return value;
+    }
+
+    /**
+     * 当前值与 expect 相等时写入 update, 对同一个 namespace 中的其它写操作是原子的.
+     *
+     * @param expect 为空时表示期望 key 不存在
+     * @param update 为空时删除 key
+     * @see StorageEngine#compareAndSet(String, String, String)
+     */
+    public boolean compareAndSet(String namespace, String key, String expect, String update) {
+        final StorageEngine target = getTarget(namespace);
+        final AtomicBoolean result = new AtomicBoolean();
+        // 在同一个事务中先写入该 key 尚未写入的异步数据, 再在数据库中比较
+        target.runInTransaction(() -> {
+            final PendingWrite pendingWrite = takePending(namespace, key);
+            if (pendingWrite != null) {
+                target.set(pendingWrite.key, pendingWrite.value);
+            }
+            result.set(target.compareAndSet(key, expect, update));
+        });
+        final boolean success = result.get();
+        if (success) {
+            dispatchChange(namespace, Collections.singleton(key));
+        }
+        return success;
+    }
+
+    /**
+     * 包内可见, 测试中用于选取落在同一把锁上的 key
+     */
+    @NonNull
+    Object getGetOrSetLock(String namespace, String key) {
+        final int hash = namespace.hashCode() * 31 + (key == null ? 0 : key.hashCode());
+        return mGetOrSetLocks[(hash & 0x7FFFFFFF) % mGetOrSetLocks.length];
+    }
+
+    private boolean isPending(String namespace, String key) {
+        synchronized (mPendingWrites) {
+            Map<String, PendingWrite> pending = mPendingWrites.get(namespace);
+            return pending != null && pending.containsKey(key);
+        }
+    }
+
+    /**
+     * 监听 namespace 中指定 key 的变更. 短时间内的多次变更合并为一次回调.
+     *
+     * @param key            为 null 时监听整个 namespace
+     * @param postToUiThread 是否在 UI 线程中回调, 否则在后台线程中回调
+     * @see #removeOnChangeListener(OnChangeListener)
+     */
+    public void addOnChangeListener(String namespace, @Nullable String key, @NonNull OnChangeListener listener, boolean postToUiThread) {
+        namespace = checkNamespace(namespace);
+        // 共享的 namespace 需要打开数据库才能收到其它进程的变更
+        getTarget(namespace);
+        mChangeObservers.add(new ChangeObserver(namespace, key, listener, postToUiThread));
+    }
+
+    public void removeOnChangeListener(@Nullable OnChangeListener listener) {
+        for (ChangeObserver observer : mChangeObservers) {
+            if (observer.listener == listener) {
+                mChangeObservers.remove(observer);
+                observer.queue.setConsumer(null);
+            }
+        }
+    }
+
+    /**
+     * @param keys 为 null 时表示变更的 key 未知
+     */
+    private void dispatchChange(String namespace, @Nullable Collection<String> keys) {
+        for (ChangeObserver observer : mChangeObservers) {
+            if (!observer.namespace.equals(namespace)) {
+                continue;
+            }
+            if (keys == null) {
+                observer.queue.add(observer.key != null ? observer.key : UNKNOWN_KEY);
+            } else if (observer.key == null) {
+                for (String key : keys) {
+                    if (!TextUtils.isEmpty(key)) {
+                        observer.queue.add(key);
+                    }
+                }
+            } else if (keys.contains(observer.key)) {
+                observer.queue.add(observer.key);
+            }
+        }
+    }
+
+    /**
+     * 丢弃指定 key 尚未写入的异步数据, 如果存在被丢弃的数据返回 true.
+     */
+    private boolean cancelPending(String namespace, String key) {
+        return takePending(namespace, key) != null;
+    }
+
+    /**
+     * 取出并丢弃指定 key 尚未写入的异步数据, 不存在时返回 null
+     */
+    @Nullable
+    private PendingWrite takePending(String namespace, String key) {
+        synchronized (mPendingWrites) {
+            Map<String, PendingWrite> pending = mPendingWrites.get(namespace);
+            if (pending == null) {
+                return null;
+            }
+            final PendingWrite pendingWrite = pending.remove(key);
+            if (pending.isEmpty()) {
+                mPendingWrites.remove(namespace);
+            }
+            return pendingWrite;
+        }
+    }
+
+    private boolean cancelPending(String namespace, Collection<String> keys) {
+        boolean cancel = false;
+        for (String key : keys) {
+            if (cancelPending(namespace, key)) {
+                cancel = true;
+            }
+        }
+        return cancel;
+    }
+
+    /**
+     * 将仍处于 pending 状态的数据按 namespace 分组, 每个 namespace 在一个事务中写入.
+     * 已经被更新的写入覆盖或者被同步写操作取消的数据会被跳过. 每条数据在事务中确认仍处于 pending 状态后写入,
+     * 见 {@linkplain #mApplyQueue}.
+     */
+    private void writePending(@NonNull List<PendingWrite> pendingList) {
+        final Map<String, List<PendingWrite>> batches = new HashMap<>();
+        synchronized (mPendingWrites) {
+            for (PendingWrite pendingWrite : pendingList) {
+                if (!isPending(pendingWrite)) {
+                    continue;
+                }
+                List<PendingWrite> batch = batches.get(pendingWrite.namespace);
+                if (batch == null) {
+                    batch = new ArrayList<>();
+                    batches.put(pendingWrite.namespace, batch);
+                }
+                batch.add(pendingWrite);
+            }
+        }
+
+        try {
+            for (Map.Entry<String, List<PendingWrite>> entry : batches.entrySet()) {
+                final StorageEngine target = getTarget(entry.getKey());
+                final List<PendingWrite> batch = entry.getValue();
+                target.runInTransaction(() -> {
+                    for (PendingWrite pendingWrite : batch) {
+                        final boolean pending;
+                        synchronized (mPendingWrites) {
+                            pending = isPending(pendingWrite);
+                        }
+                        if (pending) {
+                            target.set(pendingWrite.key, pendingWrite.value);
+                        }
+                    }
+                });
+            }
+        } catch (Throwable e) {
+            CoreLog.e(e, "fail to write pending");
+        } finally {
+            synchronized (mPendingWrites) {
+                for (PendingWrite pendingWrite : pendingList) {
+                    if (isPending(pendingWrite)) {
+                        cancelPending(pendingWrite.namespace, pendingWrite.key);
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isPending(@NonNull PendingWrite pendingWrite) {
+        Map<String, PendingWrite> pending = mPendingWrites.get(pendingWrite.namespace);
+        return pending != null && pending.get(pendingWrite.key) == pendingWrite;
+    }
+
+    /**
+     * 导出 namespace 中的全部数据, 只支持 {@linkplain #ENGINE_SIMPLE_DB}. 导出前先写入尚未写入的异步数据.
+     *
+     * @return 导出的数据条数, 如果出错或者被中止返回 -1
+     * @see SimpleDB#exportTo(OutputStream, AbortSignal, Progress)
+     */
+    public int exportTo(String namespace, @NonNull OutputStream out, @Nullable AbortSignal abortSignal, @Nullable Progress progress) {
+        StorageEngine target = getTarget(namespace);
+        if (!(target instanceof SimpleDB)) {
+            CoreLog.e("namespace %s not support export", namespace);
+            return -1;
+        }
+        flush();
+        return ((SimpleDB) target).exportTo(out, abortSignal, progress);
+    }
+
+    /**
+     * 导入通过 {@linkplain #exportTo(String, OutputStream, AbortSignal, Progress)} 导出的数据, 只支持 {@linkplain #ENGINE_SIMPLE_DB}.
+     *
+     * @return 导入的数据条数, 如果出错返回 -1
+     * @see SimpleDB#importFrom(InputStream, AbortSignal, Progress)
+     */
+    public int importFrom(String namespace, @NonNull InputStream in, @Nullable AbortSignal abortSignal, @Nullable Progress progress) {
+        StorageEngine target = getTarget(namespace);
+        if (!(target instanceof SimpleDB)) {
+            CoreLog.e("namespace %s not support import", namespace);
+            return -1;
+        }
+        flush();
+        final int count = ((SimpleDB) target).importFrom(in, abortSignal, progress);
+        if (count > 0) {
+            dispatchChange(namespace, null);
+        }
+        return count;
     }
 
     public void printAllRows(String namespace) {
         getTarget(namespace).printAllRows();
     }
 
+    private void scheduleSweepExpired() {
+        Threads.postUi(() -> Threads.postBackground(this::sweepExpired), SWEEP_EXPIRED_INTERVAL_MS);
+    }
+
+    /**
+     * 清理所有已打开的 namespace 中过期的数据, 完成后安排下一次清理
+     */
+    private void sweepExpired() {
+        try {
+            final Map<String, StorageEngine> targets;
+            synchronized (mProviders) {
+                targets = new HashMap<>(mProviders);
+            }
+            for (Map.Entry<String, StorageEngine> entry : targets.entrySet()) {
+                if (entry.getValue().sweepExpired() > 0) {
+                    dispatchChange(entry.getKey(), null);
+                }
+            }
+        } catch (Throwable e) {
+            CoreLog.e(e, "fail to sweep expired");
+        } finally {
+            scheduleSweepExpired();
+        }
+    }
+
     @NonNull
-    private SimpleDB getTarget(String namespace) {
+    private StorageEngine getTarget(String namespace) {
         namespace = checkNamespace(namespace);
+        final String targetNamespace = namespace;
+
+        StorageEngine db = mProviders.get(namespace);
+        if (db != null) {
+            return db;
+        }
 
-        SimpleDB db;
-        boolean trim = false;
+        long maxBytes = 0L;
         synchronized (mProviders) {
             db = mProviders.get(namespace);
             if (db == null) {
-                db = new SimpleDB(namespace);
+                SimpleDB.Config config = mConfigs.get(namespace);
+                if (config == null) {
+                    config = new SimpleDB.Config()
+                            .setMaxCacheSize(MAX_CACHE_SIZE)
+                            // 超出的数据在之后的写入中增量删除
+                            .setMaxRows(MAX_ROWS);
+                    if (NAMESPACE_SETTING.equals(namespace)) {
+                        // 设置项读多写少, 默认使用内存快照
+                        config.setSnapshotEnabled(true);
+                    }
+                } else {
+                    // 复制一份再补充默认值, 不修改调用方持有的对象
+                    config = config.copy();
+                }
+                if (mSingleDatabaseEnabled && !config.isMultiProcess() && config.getSharedDatabaseName() == null) {
+                    config.setSharedDatabaseName(SINGLE_DATABASE_NAME);
+                }
+                final Integer engine = mEngines.get(namespace);
+                if (engine != null && engine == ENGINE_MAPPED && config.isMultiProcess()) {
+                    CoreLog.e("namespace %s: ENGINE_MAPPED not support multi process, use ENGINE_SIMPLE_DB", namespace);
+                    db = new SimpleDB(namespace, config);
+                } else if (engine != null && engine == ENGINE_MAPPED) {
+                    db = new MappedDB(namespace, config);
+                } else {
+                    db = new SimpleDB(namespace, config);
+                }
+                db.setOnEvictListener(keys -> dispatchChange(targetNamespace, keys));
+                if (config.isMultiProcess() && db instanceof SimpleDB) {
+                    ((SimpleDB) db).setOnExternalChangeListener(keys -> dispatchChange(targetNamespace, keys));
+                }
                 mProviders.put(namespace, db);
-                trim = true;
+                maxBytes = config.getMaxBytes();
             }
         }
-        if (trim) {
-            db.trim(MAX_ROWS);
+        if (maxBytes > 0) {
+            final StorageEngine target = db;
+            final long trimBytes = maxBytes;
+            Threads.postBackground(() -> {
+                if (target.trimBytes(trimBytes) > 0) {
+                    dispatchChange(targetNamespace, null);
+                }
+            });
         }
         return db;
     }
@@ -92,6 +711,66 @@ public class StorageManager {
         return namespace;
     }
 
+    /**
+     * 数据变更的回调
+     *
+     * @see #addOnChangeListener(String, String, OnChangeListener, boolean)
+     */
+    public interface OnChangeListener {
+        /**
+         * @param keys 合并后发生变更的 key, 为空时表示变更的 key 未知(如其它进程写入了大量数据), 需要重新读取
+         */
+        void onChange(@NonNull String namespace, @NonNull Set<String> keys);
+    }
+
+    private static class ChangeObserver {
+        @NonNull
+        private final String namespace;
+        @Nullable
+        private final String key;
+        @NonNull
+        private final OnChangeListener listener;
+        @NonNull
+        private final BatchQueue<String> queue;
+
+        private ChangeObserver(@NonNull String namespace, @Nullable String key, @NonNull OnChangeListener listener, boolean postToUiThread) {
+            this.namespace = namespace;
+            this.key = key;
+            this.listener = listener;
+            this.queue = new BatchQueue<>(postToUiThread);
+            // 使用默认的追加合并, 写入大量 key 时不在写线程上遍历队列, 重复的 key 在回调前去重
+            this.queue.setConsumer(payloadList -> {
+                final Set<String> keys = new HashSet<>(payloadList);
+                if (keys.contains(UNKNOWN_KEY)) {
+                    keys.clear();
+                }
+                listener.onChange(namespace, keys);
+            });
+        }
+    }
+
+    private static class PendingWrite {
+        @NonNull
+        private final String namespace;
+        @NonNull
+        private final String key;
+        @Nullable
+        private final String value;
+
+        private PendingWrite(@NonNull String namespace, @NonNull String key, @Nullable String value) {
+            this.namespace = namespace;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * 表示变更的 key 未知, 正常的 key 不会为空
+     */
+    private static final String UNKNOWN_KEY = "";
+    private static final int GET_OR_SET_LOCK_STRIPES = 32;
     private static final int MAX_ROWS = 5000;
+    private static final int MAX_CACHE_SIZE = 200;
+    private static final long SWEEP_EXPIRED_INTERVAL_MS = 5 * 60 * 1000L;
 
 }
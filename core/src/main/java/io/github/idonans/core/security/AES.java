@@ -38,6 +38,29 @@ public class AES {
         return mV1.decode(input);
     }
 
+    /**
+     * 提前完成加密算法的加载与初始化, 避免第一次加解密时的耗时. 可以在后台线程中调用.
+     */
+    public void prewarm() throws Exception {
+        decodeBytes(encodeBytes(new byte[0]));
+    }
+
+    /**
+     * 加密二进制数据, 输出中不包含文本格式的版本与类型包装. 会混入随机噪声, 相同的输入每次得到不同的输出.
+     */
+    @NonNull
+    public byte[] encodeBytes(@NonNull byte[] input) throws Exception {
+        return mV1.encodeBytes(input);
+    }
+
+    /**
+     * @see #encodeBytes(byte[])
+     */
+    @NonNull
+    public byte[] decodeBytes(@NonNull byte[] input) throws Exception {
+        return mV1.decodeBytes(input);
+    }
+
     private static class V1 implements Encoder, Decoder {
 
         // version + split + noise + split + type + split + original string
@@ -50,11 +73,23 @@ public class AES {
 
         private static final String SPLIT = ":";
 
+        /**
+         * 二进制数据加密时, 在原始数据前附加的随机噪声的长度
+         */
+        private static final int BYTES_NOISE_LENGTH = 4;
+
         private final String mKey;
         private final String mPackageName;
         private final byte[] mKeyBytes;
         private final byte[] mIvBytes;
 
+        /**
+         * 每个线程复用已经初始化的 Cipher, doFinal 完成后 Cipher 会恢复到初始化后的状态.
+         * 使用中的 Cipher 从 ThreadLocal 中取出, 出错时直接丢弃.
+         */
+        private final ThreadLocal<Cipher> mEncoders = new ThreadLocal<>();
+        private final ThreadLocal<Cipher> mDecoders = new ThreadLocal<>();
+
         private V1(@Nullable String key) {
             final String packageName = ContextUtil.getContext().getPackageName();
             TextUtil.checkStringNotEmpty(packageName, "package name not found");
@@ -81,12 +116,32 @@ public class AES {
             return cipher;
         }
 
+        private Cipher obtainEncoder() throws Exception {
+            final Cipher cipher = mEncoders.get();
+            if (cipher == null) {
+                return createEncoder();
+            }
+            mEncoders.set(null);
+            return cipher;
+        }
+
+        private Cipher obtainDecoder() throws Exception {
+            final Cipher cipher = mDecoders.get();
+            if (cipher == null) {
+                return createDecoder();
+            }
+            mDecoders.set(null);
+            return cipher;
+        }
+
         @NonNull
         @Override
         public String encode(@Nullable String input, boolean stable) throws Exception {
             final String formatInput = wrapVersion(wrapNoise(wrapType(input), stable));
             byte[] inputBytes = formatInput.getBytes(Charsets.UTF8);
-            byte[] outputBytes = createEncoder().doFinal(inputBytes);
+            final Cipher cipher = obtainEncoder();
+            byte[] outputBytes = cipher.doFinal(inputBytes);
+            mEncoders.set(cipher);
             String output = Base64.encodeUrl(outputBytes);
             return wrapVersion(output);
         }
@@ -96,12 +151,39 @@ public class AES {
         public String decode(@NonNull String input) throws Exception {
             input = unwrapVersion(input);
             byte[] inputBytes = Base64.decode(input);
-            byte[] outputBytes = createDecoder().doFinal(inputBytes);
+            final Cipher cipher = obtainDecoder();
+            byte[] outputBytes = cipher.doFinal(inputBytes);
+            mDecoders.set(cipher);
             String output = new String(outputBytes, Charsets.UTF8);
             output = unwrapType(unwrapNoise(unwrapVersion(output)));
             return output;
         }
 
+        @NonNull
+        private byte[] encodeBytes(@NonNull byte[] input) throws Exception {
+            final byte[] noise = new byte[BYTES_NOISE_LENGTH];
+            for (int i = 0; i < noise.length; i++) {
+                noise[i] = (byte) (Math.random() * 256);
+            }
+            final Cipher cipher = obtainEncoder();
+            final byte[] output = new byte[cipher.getOutputSize(noise.length + input.length)];
+            int length = cipher.update(noise, 0, noise.length, output, 0);
+            length += cipher.doFinal(input, 0, input.length, output, length);
+            mEncoders.set(cipher);
+            return length == output.length ? output : Arrays.copyOf(output, length);
+        }
+
+        @NonNull
+        private byte[] decodeBytes(@NonNull byte[] input) throws Exception {
+            final Cipher cipher = obtainDecoder();
+            final byte[] output = cipher.doFinal(input);
+            mDecoders.set(cipher);
+            if (output.length < BYTES_NOISE_LENGTH) {
+                throw new RuntimeException("invalid bytes length " + output.length);
+            }
+            return Arrays.copyOfRange(output, BYTES_NOISE_LENGTH, output.length);
+        }
+
         @NonNull
         private String wrapType(@Nullable String str) {
             if (str == null) {